@@ -2,10 +2,16 @@ package org.argon.roderick.minecraft.oredowsing;
 
 import java.io.File;
 
+import org.argon.roderick.minecraft.oredowsing.command.CommandOreDowsing;
 import org.argon.roderick.minecraft.oredowsing.init.CommonProxy;
 import org.argon.roderick.minecraft.oredowsing.init.ModItems;
 import org.argon.roderick.minecraft.oredowsing.lib.Constants;
 import org.argon.roderick.minecraft.oredowsing.lib.Reference;
+import org.argon.roderick.minecraft.oredowsing.network.PacketHandler;
+import org.argon.roderick.minecraft.oredowsing.scan.OreDensityTracker;
+import org.argon.roderick.minecraft.oredowsing.scan.ScanScheduler;
+import org.argon.roderick.minecraft.oredowsing.scan.SectionCache;
+import org.argon.roderick.minecraft.oredowsing.scan.WarmupCrawler;
 
 import net.minecraftforge.common.config.Configuration;
 import net.minecraftforge.fml.common.Mod;
@@ -28,6 +34,7 @@ public class OreDowsing {
         Constants.preInit(event, config);
         ModItems.preInit(event, config);
         config.save();
+        PacketHandler.preInit();
     }
 
     @Mod.EventHandler
@@ -43,4 +50,20 @@ public class OreDowsing {
         proxy.postInit(event);
     }
 
+    @Mod.EventHandler
+    public void serverStarting(FMLServerStartingEvent event)
+    {
+        event.registerServerCommand(new CommandOreDowsing());
+    }
+
+    @Mod.EventHandler
+    public void serverStopped(FMLServerStoppedEvent event)
+    {
+        // in single player the next server may be a different save
+        ScanScheduler.clear();
+        OreDensityTracker.clear();
+        SectionCache.SHARED.clear();
+        WarmupCrawler.clear();
+    }
+
 }
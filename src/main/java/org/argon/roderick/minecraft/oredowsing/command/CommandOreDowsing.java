@@ -0,0 +1,148 @@
+package org.argon.roderick.minecraft.oredowsing.command;
+
+import java.util.List;
+
+import org.argon.roderick.minecraft.oredowsing.lib.Constants;
+import org.argon.roderick.minecraft.oredowsing.lib.Reference;
+import org.argon.roderick.minecraft.oredowsing.scan.OreDensityTracker;
+import org.argon.roderick.minecraft.oredowsing.scan.ScanPlanner;
+import org.argon.roderick.minecraft.oredowsing.scan.ScanScheduler;
+import org.argon.roderick.minecraft.oredowsing.scan.SectionCache;
+import org.argon.roderick.minecraft.oredowsing.scan.WarmupCrawler;
+
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.BlockPos;
+import net.minecraft.util.ChatComponentText;
+
+// /oredowsing <subcommand>, server operators' view into the scan machinery
+
+public class CommandOreDowsing extends CommandBase {
+
+    private static final String[] SUBCOMMANDS = { "stats", "crawl" };
+
+    private static final String CRAWL_USAGE = "/" + Reference.MODID + " crawl [world|stop]";
+
+    @Override
+    public String getCommandName()
+    {
+        return Reference.MODID;
+    }
+
+    @Override
+    public String getCommandUsage(ICommandSender sender)
+    {
+        StringBuilder sb = new StringBuilder("/" + Reference.MODID + " <");
+        for (int i = 0; i < SUBCOMMANDS.length; i++) {
+            sb.append(i == 0 ? "" : "|").append(SUBCOMMANDS[i]);
+        }
+        return sb.append(">").toString();
+    }
+
+    @Override
+    public int getRequiredPermissionLevel()
+    {
+        return 2;
+    }
+
+    @Override
+    public void processCommand(ICommandSender sender, String[] args) throws CommandException
+    {
+        if (args.length < 1) {
+            throw new WrongUsageException(getCommandUsage(sender));
+        }
+
+        if (args[0].equals("stats")) {
+            stats(sender);
+        }
+        else if (args[0].equals("crawl")) {
+            crawl(sender, args);
+        }
+        else {
+            throw new WrongUsageException(getCommandUsage(sender));
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public List addTabCompletionOptions(ICommandSender sender, String[] args, BlockPos pos)
+    {
+        return args.length == 1 ? getListOfStringsMatchingLastWord(args, SUBCOMMANDS) : null;
+    }
+
+    private void stats(ICommandSender sender)
+    {
+        say(sender, String.format("scans: %d queued for %d players, %d accepted, %d rejected, %d completed",
+                ScanScheduler.getQueueDepth(), ScanScheduler.getPlayersWaiting(),
+                ScanScheduler.getJobsAccepted(), ScanScheduler.getJobsRejected(), ScanScheduler.getJobsCompleted()));
+        say(sender, String.format("wait: %.1f ticks average, %d max; latency %.1f ticks average",
+                ScanScheduler.getAverageWaitTicks(), ScanScheduler.getMaxWaitTicks(),
+                ScanScheduler.getAverageLatencyTicks()));
+        say(sender, String.format("unloaded chunks: %d skipped, %d scans partial",
+                ScanScheduler.getChunksSkipped(), ScanScheduler.getPartialScans()));
+        say(sender, String.format("height bands: %d sections skipped by targeted scans",
+                ScanScheduler.getSectionsPruned()));
+        say(sender, String.format("section cache: %d sections, %.0f%% hits of %d lookups, %d evictions, %d invalidations",
+                SectionCache.SHARED.size(), 100 * SectionCache.SHARED.getHitRate(), SectionCache.SHARED.getLookups(),
+                SectionCache.SHARED.getEvictions(), SectionCache.SHARED.getInvalidations()));
+        for (ScanPlanner.Strategy strategy : ScanPlanner.Strategy.values()) {
+            if (ScanPlanner.getPlanned(strategy) > 0) {
+                say(sender, String.format("planner %s: %d %s, %d blocks estimated, %d actual",
+                        strategy.name().toLowerCase(), ScanPlanner.getPlanned(strategy),
+                        strategy == ScanPlanner.Strategy.TILE_ENTITIES ? "columns" : "sections",
+                        ScanPlanner.getEstimatedCost(strategy), ScanPlanner.getActualCost(strategy)));
+            }
+        }
+        say(sender, String.format("last tick: %d blocks in %.2f ms",
+                ScanScheduler.getLastTickBlocks(), ScanScheduler.getLastTickMillis()));
+        say(sender, String.format("density summary: %d chunks waiting to be counted",
+                OreDensityTracker.getNumPending()));
+    }
+
+    private void crawl(ICommandSender sender, String[] args) throws CommandException
+    {
+        if (args.length > 2) {
+            throw new WrongUsageException(CRAWL_USAGE);
+        }
+        if (args.length == 2) {
+            if (args[1].equals("world")) {
+                if (WarmupCrawler.isWorldPassRunning()) {
+                    say(sender, "crawl: the world pass is already running, use \"crawl stop\" first");
+                }
+                else if (!WarmupCrawler.startWorldPass(MinecraftServer.getServer().worldServerForDimension(0))) {
+                    say(sender, "crawl: the overworld has no saved chunks");
+                }
+            }
+            else if (args[1].equals("stop")) {
+                WarmupCrawler.stopWorldPass();
+            }
+            else {
+                throw new WrongUsageException(CRAWL_USAGE);
+            }
+        }
+
+        say(sender, String.format("crawl: %s, %d chunks near players waiting, %d pauses",
+                !Constants.CRAWL_ENABLED ? "disabled" : WarmupCrawler.isPaused() ? "paused" : "running",
+                WarmupCrawler.getNumQueued(), WarmupCrawler.getPauses()));
+        say(sender, String.format("crawl: %d chunks counted, %d sections cached (%d not used by a scan yet), %d saved chunks read",
+                WarmupCrawler.getChunksCounted(), WarmupCrawler.getSectionsWarmed(),
+                SectionCache.SHARED.getNumWarmed(), WarmupCrawler.getWorldChunksRead()));
+        if (WarmupCrawler.isWorldPassRunning()) {
+            say(sender, String.format("crawl: world pass %d of %d regions done",
+                    WarmupCrawler.getRegionsDone(), WarmupCrawler.getRegionsTotal()));
+        }
+        else if (WarmupCrawler.isWorldPassFull()) {
+            say(sender, String.format("crawl: world pass stopped with %d unloaded chunks counted (density_unloaded_columns)",
+                    Constants.DENSITY_UNLOADED_COLUMNS));
+        }
+    }
+
+    static void say(ICommandSender sender, String msg)
+    {
+        sender.addChatMessage(new ChatComponentText(msg));
+    }
+
+}
@@ -1,7 +1,9 @@
 package org.argon.roderick.minecraft.oredowsing.init;
 
 import org.argon.roderick.minecraft.oredowsing.render.DowsingRodRenderer;
+import org.argon.roderick.minecraft.oredowsing.render.HighlightPinger;
 
+import net.minecraftforge.fml.common.FMLCommonHandler;
 import net.minecraftforge.fml.common.event.FMLInitializationEvent;
 import net.minecraftforge.common.MinecraftForge;
 
@@ -10,7 +12,10 @@ public class ClientProxy extends CommonProxy {
     public void init(FMLInitializationEvent e)
     {
         super.init(e);
-        MinecraftForge.EVENT_BUS.register(new DowsingRodRenderer());
+        DowsingRodRenderer renderer = new DowsingRodRenderer();
+        MinecraftForge.EVENT_BUS.register(renderer);
+        FMLCommonHandler.instance().bus().register(renderer); // client tick, disconnect
+        FMLCommonHandler.instance().bus().register(new HighlightPinger());
     }
 
 }
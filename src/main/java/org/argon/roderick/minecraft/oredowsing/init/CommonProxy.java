@@ -1,5 +1,12 @@
 package org.argon.roderick.minecraft.oredowsing.init;
 
+import org.argon.roderick.minecraft.oredowsing.scan.OreDensityTracker;
+import org.argon.roderick.minecraft.oredowsing.scan.ScanScheduler;
+import org.argon.roderick.minecraft.oredowsing.scan.SectionCache;
+import org.argon.roderick.minecraft.oredowsing.scan.WarmupCrawler;
+
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.fml.common.FMLCommonHandler;
 import net.minecraftforge.fml.common.event.FMLInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPostInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
@@ -12,6 +19,17 @@ public class CommonProxy {
 
     public void init(FMLInitializationEvent e)
     {
+        FMLCommonHandler.instance().bus().register(new ScanScheduler());
+
+        OreDensityTracker densityTracker = new OreDensityTracker();
+        MinecraftForge.EVENT_BUS.register(densityTracker);
+        FMLCommonHandler.instance().bus().register(densityTracker); // server tick
+
+        MinecraftForge.EVENT_BUS.register(new SectionCache.Invalidator());
+
+        WarmupCrawler.TickHandler crawler = new WarmupCrawler.TickHandler();
+        MinecraftForge.EVENT_BUS.register(crawler); // world load
+        FMLCommonHandler.instance().bus().register(crawler);
     }
 
     public void postInit(FMLPostInitializationEvent e)
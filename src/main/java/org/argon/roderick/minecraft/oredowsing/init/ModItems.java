@@ -75,7 +75,8 @@ public class ModItems
             boolean parIsChargeable,
             String parUpgradeItemName,
             int parItemsPerUpgrade,
-            int parMaxSquareRadius)
+            int parMaxSquareRadius,
+            int parLongRangeRadius)
     {
         String namePrefix = parNamePrefix;
         String cat = "rod." + namePrefix.toLowerCase();
@@ -100,6 +101,7 @@ public class ModItems
                    getStackForString(myconf.get("upgrade_item",              parUpgradeItemName      , "crafting ingredient used to upgrade radius"));
         int     itemsPerUpgrade    = myconf.get("upgrade_item_count",        parItemsPerUpgrade      , "number of upgrade items required to increase radius by 1");
         int     maxSquareRadius    = myconf.get("radius_max",                parMaxSquareRadius      , "maximum upgraded radius, 0 if not upgradeable");
+        int     longRangeRadius    = myconf.get("long_range_radius",         parLongRangeRadius      , "radius of the long range hint mode, 0 to disable it");
 
         myconf.close();
 
@@ -111,23 +113,30 @@ public class ModItems
                 ingredientBase, ingredientTop,
                 forcedTargetBlock, allowTargetChange,
                 maxDamage, squareRadius, showOreColor, isChargeable,
-                upgradeItem, itemsPerUpgrade, maxSquareRadius);
+                upgradeItem, itemsPerUpgrade, maxSquareRadius, longRangeRadius);
         dowsingRods.add(rod);
     }
 
     public static void preInit(FMLPreInitializationEvent event, Configuration config)
     {
-        //                        name       base ingredient         tip ingredient                           target                 change |uses|radius|color|charge|        upgrade item|upgrade cost|max radius
-        createDowsingRod(config, "Wood",    "minecraft:stick",      "minecraft:coal",                        "minecraft:iron_ore",    false,   50,     4, true, false,                  "",           0,         0);
-        createDowsingRod(config, "Iron",    "minecraft:iron_ingot", "minecraft:redstone",                    "minecraft:gold_ore",    false,  100,     6, true, false,                  "",           0,         0);
-        createDowsingRod(config, "Gold",    "minecraft:gold_ingot", "minecraft:dye;" + Constants.META_LAPIS, "minecraft:diamond_ore", false,  100,     8, true, false,                  "",           0,         0);
-        createDowsingRod(config, "Diamond", "minecraft:diamond",    "minecraft:emerald",                     "",                       true, 1000,     8, true,  true, "minecraft:diamond",           4,        16);
-
+        createDowsingRods(config);
         for (DowsingRod rod : dowsingRods) {
             GameRegistry.registerItem(rod, rod.getName());
         }
     }
 
+    // the rod tiers as configured, not registered; LoadSimulatorTest's
+    // simulated players carry these
+
+    public static void createDowsingRods(Configuration config)
+    {
+        //                        name       base ingredient         tip ingredient                           target                 change |uses|radius|color|charge|        upgrade item|upgrade cost|max radius|long range
+        createDowsingRod(config, "Wood",    "minecraft:stick",      "minecraft:coal",                        "minecraft:iron_ore",    false,   50,     4, true, false,                  "",           0,         0,         0);
+        createDowsingRod(config, "Iron",    "minecraft:iron_ingot", "minecraft:redstone",                    "minecraft:gold_ore",    false,  100,     6, true, false,                  "",           0,         0,         0);
+        createDowsingRod(config, "Gold",    "minecraft:gold_ingot", "minecraft:dye;" + Constants.META_LAPIS, "minecraft:diamond_ore", false,  100,     8, true, false,                  "",           0,         0,         0);
+        createDowsingRod(config, "Diamond", "minecraft:diamond",    "minecraft:emerald",                     "",                       true, 1000,     8, true,  true, "minecraft:diamond",           4,        16,       128);
+    }
+
     public static void init(FMLInitializationEvent event)
     {
         GameRegistry.addRecipe(new RecipeDowsingRodUpgrade());
@@ -1,24 +1,36 @@
 package org.argon.roderick.minecraft.oredowsing.items;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.argon.roderick.minecraft.oredowsing.lib.Constants;
 import org.argon.roderick.minecraft.oredowsing.lib.Reference;
 import org.argon.roderick.minecraft.oredowsing.lib.cofhDummy;
-import org.argon.roderick.minecraft.oredowsing.render.DowsingRodRenderer;
+import org.argon.roderick.minecraft.oredowsing.scan.OreDensityMap;
+import org.argon.roderick.minecraft.oredowsing.scan.OreDensityTracker;
+import org.argon.roderick.minecraft.oredowsing.scan.OreTypes;
+import org.argon.roderick.minecraft.oredowsing.scan.ScanJob;
+import org.argon.roderick.minecraft.oredowsing.scan.ScanScheduler;
 
 import cofh.api.energy.IEnergyContainerItem;
+
+import com.google.common.collect.MapMaker;
+
 import net.minecraftforge.fml.common.Optional;
 import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.creativetab.CreativeTabs;
 import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.entity.player.InventoryPlayer;
 import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.BlockPos;
 import net.minecraft.util.ChatComponentText;
 import net.minecraft.util.EnumFacing;
+import net.minecraft.util.MathHelper;
 import net.minecraft.world.World;
 
 @Optional.Interface(modid = "CoFHAPI|energy", iface = "cofh.api.energy.IEnergyContainerItem")
@@ -30,6 +42,16 @@ public class DowsingRod extends Item implements IEnergyContainerItem
     private static final String NBT_TARGET_BLOCK_ID       = "block_id";
     private static final String NBT_TARGET_BLOCK_METADATA = "block_metadata";
     private static final String NBT_NUM_UPGRADES          = "num_upgrades";
+    private static final String NBT_LONG_RANGE            = "long_range";
+    private static final String NBT_HOTBAR                = "hotbar";
+
+    private static final int    MAX_LONG_RANGE_HINTS      = 5;
+
+    // keyed by tag compound identity and weakly, so a copied stack gets its
+    // own entry and a discarded one doesn't keep its entry alive; shared by
+    // the client and server threads
+    private static final Map<NBTTagCompound, RodState> stateCache =
+            new MapMaker().weakKeys().makeMap();
 
     private final String    name;
     private final Block     initialTargetBlock; // null for any ore
@@ -40,6 +62,7 @@ public class DowsingRod extends Item implements IEnergyContainerItem
     private final ItemStack upgradeItemStack;
     private final int       itemsPerUpgrade;
     private final int       maxSquareRadius;
+    private final int       longRangeRadius; // 0 if there's no long range mode
     public  final Object    ingredientBase;
     public  final Object    ingredientTop;
 
@@ -54,7 +77,8 @@ public class DowsingRod extends Item implements IEnergyContainerItem
             boolean parIsChargeable,
             ItemStack parUpgradeItemStack,
             int parItemsPerUpgrade,
-            int parMaxSquareRadius)
+            int parMaxSquareRadius,
+            int parLongRangeRadius)
     {
         super();
 
@@ -67,6 +91,7 @@ public class DowsingRod extends Item implements IEnergyContainerItem
         upgradeItemStack   = parUpgradeItemStack;
         itemsPerUpgrade    = parItemsPerUpgrade;
         maxSquareRadius    = parMaxSquareRadius;
+        longRangeRadius    = parLongRangeRadius;
         ingredientBase     = parIngredientBase;
         ingredientTop      = parIngredientTop;
 
@@ -94,21 +119,43 @@ public class DowsingRod extends Item implements IEnergyContainerItem
         }
         tc.setInteger(NBT_RADIUS, baseSquareRadius);
         tc.setInteger(NBT_NUM_UPGRADES, 0);
+        stateCache.remove(tc);
     }
 
-    public boolean addUpgrade(ItemStack stack, int num_upgrades)
+    // decoded NBT, see RodState
+    public RodState getState(ItemStack stack)
     {
         if (stack.getTagCompound() == null) {
             initNBT(stack);
         }
+        NBTTagCompound tc = stack.getTagCompound();
+        RodState state = stateCache.get(tc);
+        if (state == null) {
+            state = new RodState(tc, NBT_RADIUS, NBT_NUM_UPGRADES,
+                    NBT_TARGET_BLOCK_ID, NBT_TARGET_BLOCK_METADATA, NBT_LONG_RANGE, NBT_HOTBAR);
+            stateCache.put(tc, state);
+        }
+        return state;
+    }
+
+    // every change this class makes to a rod's tags goes through here
+    private static NBTTagCompound editNBT(ItemStack stack)
+    {
+        NBTTagCompound tc = stack.getTagCompound();
+        stateCache.remove(tc);
+        return tc;
+    }
 
+    public boolean addUpgrade(ItemStack stack, int num_upgrades)
+    {
         int new_num_upgrades = this.getNumUpgrades(stack) + num_upgrades;
         int new_radius       = baseSquareRadius + new_num_upgrades;
         if (new_radius > maxSquareRadius)
             return false;
 
-        stack.getTagCompound().setInteger(NBT_NUM_UPGRADES, new_num_upgrades);
-        stack.getTagCompound().setInteger(NBT_RADIUS,       new_radius);
+        NBTTagCompound tc = editNBT(stack);
+        tc.setInteger(NBT_NUM_UPGRADES, new_num_upgrades);
+        tc.setInteger(NBT_RADIUS,       new_radius);
         return true;
     }
 
@@ -132,75 +179,151 @@ public class DowsingRod extends Item implements IEnergyContainerItem
         return maxSquareRadius;
     }
 
+    public int getBaseSquareRadius()
+    {
+        return baseSquareRadius;
+    }
+
+    public boolean getShowOreColor()
+    {
+        return showOreColor;
+    }
+
+    // target of a new rod, null for any ore
+    public ItemStack getInitialTargetStack()
+    {
+        return initialTargetBlock == null ? null : new ItemStack(initialTargetBlock);
+    }
+
     public int getNumUpgrades(ItemStack stack)
     {
-        if (stack.getTagCompound() == null) {
-            initNBT(stack);
-        }
-        return stack.getTagCompound().getInteger(NBT_NUM_UPGRADES);
+        return getState(stack).numUpgrades;
     }
 
     public boolean canUpgrade(ItemStack stack, int num_upgrades)
     {
-        if (stack.getTagCompound() == null) {
-            initNBT(stack);
-        }
-        return this.getSquareRadius(stack) + num_upgrades <= this.getMaxSquareRadius();
+        return getState(stack).canUpgrade(num_upgrades, maxSquareRadius);
     }
 
+    // shared with the cached state, don't modify it
     public ItemStack getTargetStack(ItemStack stack)
     {
-        if (stack.getTagCompound() == null) {
-            initNBT(stack);
-        }
-        int block_id = stack.getTagCompound().getInteger(NBT_TARGET_BLOCK_ID);
-        int meta     = stack.getTagCompound().getInteger(NBT_TARGET_BLOCK_METADATA);
-        return block_id == 0
-                ? null
-                : new ItemStack(Block.getBlockById(block_id), 1, meta);
+        return getState(stack).targetStack;
     }
 
     private int getSquareRadius(ItemStack stack)
     {
-        if (stack.getTagCompound() == null) {
-            initNBT(stack);
+        return getState(stack).radius;
+    }
+
+    public boolean isLongRange(ItemStack stack)
+    {
+        return longRangeRadius > 0 && getState(stack).longRange;
+    }
+
+    // scan with every rod in the hotbar at once
+    public boolean isHotbarMode(ItemStack stack)
+    {
+        return getState(stack).hotbar;
+    }
+
+    // normal -> long range (if the rod has it) -> hotbar -> normal
+    private void cycleMode(ItemStack stack, EntityPlayer player)
+    {
+        boolean long_range = isLongRange(stack);
+        boolean hotbar     = isHotbarMode(stack);
+        String mode;
+        if (long_range) {
+            long_range = false;
+            hotbar     = true;
+            mode       = "hotbar";
+        }
+        else if (hotbar) {
+            hotbar = false;
+            mode   = "normal";
+        }
+        else if (longRangeRadius > 0) {
+            long_range = true;
+            mode       = "long_range";
+        }
+        else {
+            hotbar = true;
+            mode   = "hotbar";
+        }
+
+        getState(stack); // make sure the NBT is there
+        NBTTagCompound tc = editNBT(stack);
+        tc.setBoolean(NBT_LONG_RANGE, long_range);
+        tc.setBoolean(NBT_HOTBAR,     hotbar);
+        if (player != null) {
+            player.addChatMessage(new ChatComponentText(
+                    cofhDummy.localize("text.oredowsing.mode." + mode)));
         }
-        return stack.getTagCompound().getInteger(NBT_RADIUS);
     }
 
     @SuppressWarnings({ "unchecked", "rawtypes" })
     @Override
     public void addInformation(ItemStack stack, EntityPlayer player, List list, boolean par4)
     {
-        if (stack.getTagCompound() == null) {
-            initNBT(stack);
+        RodState state = getState(stack);
+        String language = cofhDummy.localize("text.oredowsing.tooltip.0");
+        if (state.tooltip == null || !language.equals(state.tooltipLanguage)) {
+            state.tooltip         = buildTooltip(state);
+            state.tooltipLanguage = language;
         }
+        list.addAll(state.tooltip);
+    }
 
-        ItemStack target_stack = getTargetStack(stack);
-        list.add(String.format(cofhDummy.localize("text.oredowsing.tooltip.0"),
-                        (target_stack != null ? target_stack.getDisplayName()
+    private List<String> buildTooltip(RodState state)
+    {
+        List<String> lines = new ArrayList<String>();
+        lines.add(String.format(cofhDummy.localize("text.oredowsing.tooltip.0"),
+                        (state.targetStack != null ? state.targetStack.getDisplayName()
                             : cofhDummy.localize("text.oredowsing.all_ores"))));
-        list.add(String.format(cofhDummy.localize("text.oredowsing.tooltip.1"),
-                        1+2*getSquareRadius(stack)));
+        lines.add(String.format(cofhDummy.localize("text.oredowsing.tooltip.1"),
+                        1+2*state.radius));
         if (allowTargetChange) {
-            list.add(cofhDummy.localize("text.oredowsing.tooltip.2"));
+            lines.add(cofhDummy.localize("text.oredowsing.tooltip.2"));
         }
         if (isChargeable) {
-            list.add(cofhDummy.localize("text.oredowsing.tooltip.3"));
+            lines.add(cofhDummy.localize("text.oredowsing.tooltip.3"));
+        }
+        if (longRangeRadius > 0) {
+            lines.add(String.format(cofhDummy.localize(
+                            "text.oredowsing.tooltip.long_range." + (state.longRange ? "on" : "off")),
+                            longRangeRadius));
+        }
+        if (state.hotbar || (longRangeRadius == 0 && allowTargetChange)) {
+            lines.add(cofhDummy.localize("text.oredowsing.tooltip.hotbar." + (state.hotbar ? "on" : "off")));
         }
-        if (this.canUpgrade(stack, 1)) {
-            list.add(String.format(cofhDummy.localize(
+        if (state.canUpgrade(1, maxSquareRadius)) {
+            lines.add(String.format(cofhDummy.localize(
                             "text.oredowsing.tooltip.4." + (itemsPerUpgrade == 1 ? "s" : "p")),
                             itemsPerUpgrade,
                             upgradeItemStack.getDisplayName()));
         }
+        return lines;
     }
 
     @Override
     public ItemStack onItemRightClick(ItemStack stack, World world, EntityPlayer player)
     {
         if (player.isSneaking()) {
-            setTarget(stack, null, world.isRemote ? null : player);
+            // Sneak-clicking the air clears the target; once there's no
+            // target to clear (or it can't be changed) it steps through the
+            // rod's modes.  A rod with a fixed target and no long range mode
+            // says its target can't be changed, as it always has; it still
+            // takes part in a hotbar scan started from another rod.
+            if (!allowTargetChange && longRangeRadius == 0 && !isHotbarMode(stack)) {
+                setTarget(stack, null, world.isRemote ? null : player);
+            }
+            else if (allowTargetChange && getTargetStack(stack) != null
+                    && !isLongRange(stack) && !isHotbarMode(stack)) {
+                setTarget(stack, null, world.isRemote ? null : player);
+            }
+            else {
+                cycleMode(stack, world.isRemote ? null : player);
+            }
         }
         else {
             divine(stack, world, player);
@@ -237,8 +360,9 @@ public class DowsingRod extends Item implements IEnergyContainerItem
         if (stack.getTagCompound() == null) {
             initNBT(stack);
         }
-        stack.getTagCompound().setInteger(NBT_TARGET_BLOCK_ID,       targetBlockId);
-        stack.getTagCompound().setInteger(NBT_TARGET_BLOCK_METADATA, targetBlockMeta);
+        NBTTagCompound tc = editNBT(stack);
+        tc.setInteger(NBT_TARGET_BLOCK_ID,       targetBlockId);
+        tc.setInteger(NBT_TARGET_BLOCK_METADATA, targetBlockMeta);
         if (player != null) {
             player.addChatMessage(new ChatComponentText(String.format(
                     cofhDummy.localize("text.oredowsing.change_target.yes"),
@@ -275,27 +399,112 @@ public class DowsingRod extends Item implements IEnergyContainerItem
 
     public void divine(ItemStack stack, World world, EntityPlayer player)
     {
-        stack.damageItem(Constants.DAMAGE_PER_USE, player);
+        // scans run on the server, the results are sent to the client
+        if (world.isRemote || !(player instanceof EntityPlayerMP))
+            return;
 
-        if (!world.isRemote)
+        if (isLongRange(stack)) {
+            divineLongRange(stack, world, player);
             return;
+        }
 
-        ItemStack target_stack = getTargetStack(stack);
-        int r = getSquareRadius(stack);
-        int x, y, z;
-        for (x = (int)player.posX - r; x <= player.posX + r; x++) {
-            for (y = (int)player.posY - r; y <= player.posY + r; y++) {
-                for (z = (int)player.posZ - r; z <= player.posZ + r; z++) {
-                	BlockPos pos       = new BlockPos(x, y, z);
-                	IBlockState bstate = world.getBlockState(pos);
-                	Block block        = bstate.getBlock();
-                	ItemStack is       = new ItemStack(block, 1, block.damageDropped(bstate));
-                    if (blockMatches(target_stack, is)) {
-                        DowsingRodRenderer.addBlockToHighlight(pos, world, player, Constants.RENDER_DURATION, this.showOreColor);
-                	}
+        // this rod, and in hotbar mode the others in the hotbar, all
+        // scanned for in the same pass
+        ArrayList<ScanJob.Filter> filters = new ArrayList<ScanJob.Filter>();
+        ArrayList<Integer>        slots   = new ArrayList<Integer>();
+        filters.add(new ScanJob.Filter(this, getTargetStack(stack), getSquareRadius(stack), this.showOreColor));
+        if (isHotbarMode(stack)) {
+            for (int i = 0; i < InventoryPlayer.getHotbarSize(); i++) {
+                ItemStack other = player.inventory.mainInventory[i];
+                if (other == null || other == stack || !(other.getItem() instanceof DowsingRod)) {
+                    continue;
+                }
+                DowsingRod other_rod = (DowsingRod) other.getItem();
+                if (other_rod.isLongRange(other)) {
+                    continue; // doesn't scan
                 }
+                filters.add(new ScanJob.Filter(other_rod, other_rod.getTargetStack(other),
+                        other_rod.getSquareRadius(other), other_rod.showOreColor));
+                slots.add(i);
             }
         }
+
+        ScanScheduler.Admission admission = ScanScheduler.submit(
+                new ScanJob(world, (EntityPlayerMP) player, filters.toArray(new ScanJob.Filter[filters.size()])));
+        if (admission != ScanScheduler.Admission.ACCEPTED) {
+            player.addChatMessage(new ChatComponentText(
+                    cofhDummy.localize("text.oredowsing.scan." + admission.name().toLowerCase())));
+            return;
+        }
+
+        // only charge for scans which will actually run, a use of every rod
+        stack.damageItem(Constants.DAMAGE_PER_USE, player);
+        for (int slot : slots) {
+            ItemStack other = player.inventory.mainInventory[slot];
+            other.damageItem(Constants.DAMAGE_PER_USE, player);
+            if (other.stackSize <= 0) {
+                player.inventory.mainInventory[slot] = null;
+            }
+        }
+    }
+
+    // Long range mode doesn't look at any blocks, it answers from the ore
+    // density summary kept by OreDensityTracker and just gives directions.
+
+    private void divineLongRange(ItemStack stack, World world, EntityPlayer player)
+    {
+        ItemStack target_stack = getTargetStack(stack);
+        int ore_type = OreTypes.typeOf(target_stack);
+        if (target_stack != null && ore_type == OreTypes.NONE) {
+            player.addChatMessage(new ChatComponentText(
+                    cofhDummy.localize("text.oredowsing.long_range.not_ore")));
+            return;
+        }
+
+        ScanScheduler.Admission admission = ScanScheduler.admitImmediate(player.getUniqueID());
+        if (admission != ScanScheduler.Admission.ACCEPTED) {
+            player.addChatMessage(new ChatComponentText(
+                    cofhDummy.localize("text.oredowsing.scan." + admission.name().toLowerCase())));
+            return;
+        }
+
+        int x = MathHelper.floor_double(player.posX);
+        int y = MathHelper.floor_double(player.posY);
+        int z = MathHelper.floor_double(player.posZ);
+        OreDensityMap map = OreDensityTracker.getMap(world);
+        List<OreDensityMap.Hint> hints = map == null
+                ? new ArrayList<OreDensityMap.Hint>()
+                : map.query(x, y, z, longRangeRadius, ore_type);
+
+        stack.damageItem(Constants.DAMAGE_PER_USE, player);
+
+        player.addChatMessage(new ChatComponentText(String.format(
+                cofhDummy.localize("text.oredowsing.long_range.header"),
+                Math.round(100 * (map == null ? 0 : map.coverage(x, z, longRangeRadius))))));
+        if (hints.isEmpty()) {
+            player.addChatMessage(new ChatComponentText(
+                    cofhDummy.localize("text.oredowsing.long_range.none")));
+        }
+        for (int i = 0; i < hints.size() && i < MAX_LONG_RANGE_HINTS; i++) {
+            OreDensityMap.Hint hint = hints.get(i);
+            player.addChatMessage(new ChatComponentText(String.format(
+                    cofhDummy.localize("text.oredowsing.long_range.hint"),
+                    OreTypes.getShortName(hint.oreType),
+                    hint.count,
+                    cofhDummy.localize("text.oredowsing.dir." + compassDirection(hint.dx, hint.dz)),
+                    Math.round(Math.sqrt(hint.dx * hint.dx + hint.dy * hint.dy + hint.dz * hint.dz)),
+                    cofhDummy.localize("text.oredowsing.dir."
+                            + (hint.dy > 8 ? "up" : hint.dy < -8 ? "down" : "level")))));
+        }
+    }
+
+    // north is -z, east is +x
+    private static final String[] COMPASS = { "n", "ne", "e", "se", "s", "sw", "w", "nw" };
+
+    private static String compassDirection(int dx, int dz)
+    {
+        double angle = Math.toDegrees(Math.atan2(dx, -dz)); // clockwise from north
+        return COMPASS[(int) Math.round((angle + 360) / 45) % 8];
     }
 
     // RF interface --------------------------------------------------------
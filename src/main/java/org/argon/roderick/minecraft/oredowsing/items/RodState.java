@@ -0,0 +1,49 @@
+package org.argon.roderick.minecraft.oredowsing.items;
+
+import java.util.List;
+
+import net.minecraft.block.Block;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NBTTagCompound;
+
+// What a dowsing rod's NBT says, decoded once.  DowsingRod keeps one of
+// these per tag compound and drops it whenever it changes the tags itself,
+// so the accessors and the tooltip (which is asked for every frame while
+// the stack is hovered) don't go back to the NBT each time.
+
+public class RodState {
+
+    public final int       radius;
+    public final int       numUpgrades;
+    public final int       targetBlockId;   // 0 for any ore
+    public final int       targetBlockMeta;
+    public final ItemStack targetStack;     // null for any ore; shared, don't modify
+    public final boolean   longRange;       // as stored, DowsingRod.isLongRange also checks the rod has the mode
+    public final boolean   hotbar;          // scan with every rod in the hotbar
+
+    // formatted tooltip, built on the client the first time it's wanted;
+    // tooltipLanguage is what the first line's template was at the time so
+    // a language change rebuilds it
+    List<String> tooltip;
+    String       tooltipLanguage;
+
+    RodState(NBTTagCompound tc, String radiusKey, String upgradesKey,
+            String blockIdKey, String blockMetaKey, String longRangeKey, String hotbarKey)
+    {
+        radius          = tc.getInteger(radiusKey);
+        numUpgrades     = tc.getInteger(upgradesKey);
+        targetBlockId   = tc.getInteger(blockIdKey);
+        targetBlockMeta = tc.getInteger(blockMetaKey);
+        longRange       = tc.getBoolean(longRangeKey);
+        hotbar          = tc.getBoolean(hotbarKey);
+        targetStack     = targetBlockId == 0
+                ? null
+                : new ItemStack(Block.getBlockById(targetBlockId), 1, targetBlockMeta);
+    }
+
+    public boolean canUpgrade(int num_upgrades, int maxSquareRadius)
+    {
+        return radius + num_upgrades <= maxSquareRadius;
+    }
+
+}
@@ -11,14 +11,70 @@ public class Constants {
 
     // mine, final
     public static final int DAMAGE_PER_USE = 1;
+    public static final String CATEGORY_SCAN = "scan";
 
     // mine, configurable
     public static double RENDER_DURATION;
     public static int    RF_PER_DAMAGE;
+    public static double PING_RANGE;
+    public static int    MAX_HIGHLIGHTS;
+
+    public static int    SCAN_BLOCKS_PER_TICK;
+    public static double SCAN_MILLIS_PER_TICK;
+    public static int    SCAN_SLICE_BLOCKS;
+    public static int    SCAN_MAX_QUEUED_PER_PLAYER;
+    public static int    SCAN_COOLDOWN_TICKS;
+    public static int    DENSITY_CHUNKS_PER_TICK;
+    public static double DENSITY_MILLIS_PER_TICK;
+    public static int    DENSITY_UNLOADED_COLUMNS;
+    public static int    VEIN_CONNECTIVITY;
+    public static int    VEIN_MAX_BLOCKS;
+    public static int    Y_BAND_MIN_CHUNKS;
+    public static String[] Y_BANDS;
+    public static int    SAMPLE_RADIUS;
+    public static double SAMPLE_FRACTION;
+    public static double SAMPLE_ESCALATE_DENSITY;
+    public static int    SECTION_CACHE_SECTIONS;
+    public static int    SECTION_CACHE_MAX_AGE_TICKS;
+    public static boolean CRAWL_ENABLED;
+    public static boolean CRAWL_WHOLE_WORLD;
+    public static int    CRAWL_RADIUS_CHUNKS;
+    public static double CRAWL_CACHE_FRACTION;
+    public static int    CRAWL_CHUNKS_PER_TICK;
+    public static double CRAWL_MILLIS_PER_TICK;
+    public static double CRAWL_MAX_TICK_MILLIS;
 
     public static void preInit(FMLPreInitializationEvent event, Configuration config)
     {
         RENDER_DURATION = config.get(Configuration.CATEGORY_GENERAL, "render_duration", 30.0D, "duration that the block outline stays on the screen (seconds)").getDouble();
         RF_PER_DAMAGE   = config.get(Configuration.CATEGORY_GENERAL, "rf_per_use",       3000, "RF to recharge/repair 1 use").getInt();
+        PING_RANGE      = config.get(Configuration.CATEGORY_GENERAL, "ping_range",       16.0D, "while holding a rod, ping faster as you approach a highlighted block this close (blocks, 0 to disable)").getDouble();
+        MAX_HIGHLIGHTS  = config.get(Configuration.CATEGORY_GENERAL, "max_highlights",   16384, "most blocks outlined at once; past this the farthest and soonest to expire are dropped, any-ore hits before targeted ones").getInt();
+
+        config.setCategoryComment(CATEGORY_SCAN, "server-side scan scheduling");
+        SCAN_BLOCKS_PER_TICK       = config.get(CATEGORY_SCAN, "blocks_per_tick",       65536, "maximum blocks examined by all scans together in one server tick").getInt();
+        SCAN_MILLIS_PER_TICK       = config.get(CATEGORY_SCAN, "millis_per_tick",       5.0D,  "maximum time spent on scans in one server tick (milliseconds)").getDouble();
+        SCAN_SLICE_BLOCKS          = config.get(CATEGORY_SCAN, "slice_blocks",          4096,  "blocks examined for one player before moving on to the next").getInt();
+        SCAN_MAX_QUEUED_PER_PLAYER = config.get(CATEGORY_SCAN, "max_queued_per_player", 2,     "scans a single player may have waiting at once").getInt();
+        SCAN_COOLDOWN_TICKS        = config.get(CATEGORY_SCAN, "cooldown_ticks",        10,    "minimum ticks between scans accepted from one player").getInt();
+        DENSITY_CHUNKS_PER_TICK    = config.get(CATEGORY_SCAN, "density_chunks_per_tick", 8,   "loaded chunks counted per tick for the long range ore summary").getInt();
+        DENSITY_MILLIS_PER_TICK    = config.get(CATEGORY_SCAN, "density_millis_per_tick", 2.0D, "maximum time spent counting chunks for the long range ore summary in one server tick (milliseconds)").getDouble();
+        DENSITY_UNLOADED_COLUMNS   = config.get(CATEGORY_SCAN, "density_unloaded_columns", 16384, "unloaded chunks the long range ore summary keeps the counts of, most recently unloaded first (0 for only loaded ones)").getInt();
+        VEIN_CONNECTIVITY          = config.get(CATEGORY_SCAN, "vein_connectivity",     6,     "6 to join ores into veins only through faces, 26 to include edges and corners").getInt();
+        VEIN_MAX_BLOCKS            = config.get(CATEGORY_SCAN, "vein_max_blocks",       16384, "most blocks one scan will group into veins").getInt();
+        Y_BAND_MIN_CHUNKS          = config.get(CATEGORY_SCAN, "y_band_min_chunks",     64,    "chunks which must have been counted in a dimension before targeted scans skip heights its ore hasn't been seen at (0 to never skip)").getInt();
+        Y_BANDS                    = config.get(CATEGORY_SCAN, "y_bands",               new String[0], "heights to scan for an ore in every dimension instead of the learned ones, as ore dictionary name=min-max, e.g. oreDiamond=0-16").getStringList();
+        SAMPLE_RADIUS              = config.get(CATEGORY_SCAN, "sample_radius",         64,    "scans at least this radius sample each section rather than looking at every block (0 to never sample)").getInt();
+        SAMPLE_FRACTION            = config.get(CATEGORY_SCAN, "sample_fraction",       0.0625D, "fraction of a section's blocks a sampled scan looks at").getDouble();
+        SAMPLE_ESCALATE_DENSITY    = config.get(CATEGORY_SCAN, "sample_escalate_density", 0.002D, "sampled sections where more than this fraction of the samples match are then scanned exactly").getDouble();
+        SECTION_CACHE_SECTIONS     = config.get(CATEGORY_SCAN, "section_cache_sections", 8192, "chunk sections whose scan results are kept for other scans to reuse (0 to disable)").getInt();
+        SECTION_CACHE_MAX_AGE_TICKS = config.get(CATEGORY_SCAN, "section_cache_max_age_ticks", 1200, "longest a section's scan results are reused, for changes the cache isn't told about (ticks)").getInt();
+        CRAWL_ENABLED              = config.get(CATEGORY_SCAN, "crawl_enabled",         true,  "count and cache the ores of chunks near players ahead of their scans, in ticks with time to spare").getBoolean();
+        CRAWL_WHOLE_WORLD          = config.get(CATEGORY_SCAN, "crawl_whole_world",     false, "also count every chunk saved in the overworld once it loads, loading each in turn (see /oredowsing crawl)").getBoolean();
+        CRAWL_RADIUS_CHUNKS        = config.get(CATEGORY_SCAN, "crawl_radius_chunks",   8,     "how far around each player the crawl goes (chunks)").getInt();
+        CRAWL_CACHE_FRACTION       = config.get(CATEGORY_SCAN, "crawl_cache_fraction",  0.25D, "most of section_cache_sections the crawl fills ahead of scans, near players holding a rod (0 to only count ores)").getDouble();
+        CRAWL_CHUNKS_PER_TICK      = config.get(CATEGORY_SCAN, "crawl_chunks_per_tick", 2,     "most chunks the crawl does in one server tick").getInt();
+        CRAWL_MILLIS_PER_TICK      = config.get(CATEGORY_SCAN, "crawl_millis_per_tick", 1.0D,  "most time the crawl spends in one server tick (milliseconds)").getDouble();
+        CRAWL_MAX_TICK_MILLIS      = config.get(CATEGORY_SCAN, "crawl_max_tick_millis", 30.0D, "the crawl pauses when the rest of a server tick has taken longer than this (milliseconds)").getDouble();
     }
 }
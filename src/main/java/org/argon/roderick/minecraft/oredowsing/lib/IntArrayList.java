@@ -0,0 +1,67 @@
+package org.argon.roderick.minecraft.oredowsing.lib;
+
+import java.util.Arrays;
+
+// growable list of primitive ints, see LongArrayList
+
+public class IntArrayList {
+
+    private int[] data;
+    private int   size;
+
+    public IntArrayList()
+    {
+        this(16);
+    }
+
+    public IntArrayList(int parInitialCapacity)
+    {
+        data = new int[Math.max(1, parInitialCapacity)];
+        size = 0;
+    }
+
+    public void add(int value)
+    {
+        if (size == data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+        data[size++] = value;
+    }
+
+    public int get(int i)
+    {
+        return data[i];
+    }
+
+    public void set(int i, int value)
+    {
+        data[i] = value;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public void clear()
+    {
+        size = 0;
+    }
+
+    // drop everything from newSize on
+    public void truncate(int newSize)
+    {
+        size = Math.min(size, Math.max(0, newSize));
+    }
+
+    public int[] toArray()
+    {
+        return Arrays.copyOf(data, size);
+    }
+
+}
@@ -0,0 +1,116 @@
+package org.argon.roderick.minecraft.oredowsing.lib;
+
+import java.util.Arrays;
+
+// set of non-negative primitive ints, open addressing with linear probing;
+// used for sparse sets of indexes into a scan's cube, which as a BitSet
+// would take a bit for every block in it
+
+public class IntHashSet {
+
+    private static final int EMPTY = -1;
+
+    private int[] slots;
+    private int   size;
+
+    public IntHashSet()
+    {
+        this(8);
+    }
+
+    public IntHashSet(int parExpectedSize)
+    {
+        int capacity = 16;
+        while (capacity < parExpectedSize * 2) {
+            capacity <<= 1;
+        }
+        slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+    }
+
+    // false if it was already there
+    public boolean add(int value)
+    {
+        if ((size + 1) * 2 > slots.length) {
+            resize(slots.length * 2);
+        }
+        int i = find(value);
+        if (slots[i] == value) {
+            return false;
+        }
+        slots[i] = value;
+        size++;
+        return true;
+    }
+
+    public boolean contains(int value)
+    {
+        return slots[find(value)] == value;
+    }
+
+    public boolean remove(int value)
+    {
+        int i = find(value);
+        if (slots[i] != value) {
+            return false;
+        }
+        // move back whatever after it would no longer be found from its home slot
+        int mask = slots.length - 1;
+        for (int j = (i + 1) & mask; slots[j] != EMPTY; j = (j + 1) & mask) {
+            int home = hash(slots[j]) & mask;
+            if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+                slots[i] = slots[j];
+                i = j;
+            }
+        }
+        slots[i] = EMPTY;
+        size--;
+        return true;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public void clear()
+    {
+        Arrays.fill(slots, EMPTY);
+        size = 0;
+    }
+
+    // the slot holding value, or the empty one it would go in
+    private int find(int value)
+    {
+        int mask = slots.length - 1;
+        int i = hash(value) & mask;
+        while (slots[i] != EMPTY && slots[i] != value) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void resize(int capacity)
+    {
+        int[] old = slots;
+        slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        for (int value : old) {
+            if (value != EMPTY) {
+                slots[find(value)] = value;
+            }
+        }
+    }
+
+    private static int hash(int value)
+    {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
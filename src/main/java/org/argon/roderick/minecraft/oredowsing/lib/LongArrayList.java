@@ -0,0 +1,63 @@
+package org.argon.roderick.minecraft.oredowsing.lib;
+
+import java.util.Arrays;
+
+// growable list of primitive longs, used for packed BlockPos values so that
+// scans don't allocate an object per hit
+
+public class LongArrayList {
+
+    private long[] data;
+    private int    size;
+
+    public LongArrayList()
+    {
+        this(16);
+    }
+
+    public LongArrayList(int parInitialCapacity)
+    {
+        data = new long[Math.max(1, parInitialCapacity)];
+        size = 0;
+    }
+
+    public void add(long value)
+    {
+        if (size == data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+        data[size++] = value;
+    }
+
+    public long get(int i)
+    {
+        return data[i];
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public void clear()
+    {
+        size = 0;
+    }
+
+    // drop everything from newSize on
+    public void truncate(int newSize)
+    {
+        size = Math.min(size, Math.max(0, newSize));
+    }
+
+    public long[] toArray()
+    {
+        return Arrays.copyOf(data, size);
+    }
+
+}
@@ -0,0 +1,63 @@
+package org.argon.roderick.minecraft.oredowsing.lib;
+
+// growable FIFO ring buffer of primitive longs
+
+public class LongArrayQueue {
+
+    private long[] data;
+    private int    head; // next to poll
+    private int    size;
+
+    public LongArrayQueue()
+    {
+        this(64);
+    }
+
+    public LongArrayQueue(int parInitialCapacity)
+    {
+        // power of two so the index can wrap with a mask
+        data = new long[Integer.highestOneBit(Math.max(2, parInitialCapacity - 1)) << 1];
+    }
+
+    public void add(long value)
+    {
+        if (size == data.length) {
+            long[] bigger = new long[data.length * 2];
+            for (int i = 0; i < size; i++) {
+                bigger[i] = data[(head + i) & (data.length - 1)];
+            }
+            data = bigger;
+            head = 0;
+        }
+        data[(head + size) & (data.length - 1)] = value;
+        size++;
+    }
+
+    public long poll()
+    {
+        if (size == 0) {
+            throw new IllegalStateException("queue is empty");
+        }
+        long value = data[head];
+        head = (head + 1) & (data.length - 1);
+        size--;
+        return value;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public void clear()
+    {
+        head = 0;
+        size = 0;
+    }
+
+}
@@ -0,0 +1,38 @@
+package org.argon.roderick.minecraft.oredowsing.lib;
+
+// BlockPos.toLong and BlockPos.fromLong without the BlockPos, for code
+// which handles a position per block; the layout is the same, so the
+// longs can still be given to BlockPos.fromLong where an object is wanted
+
+public final class PackedPos {
+
+    private static final int  X_BITS  = 26;
+    private static final int  Z_BITS  = 26;
+    private static final int  Y_BITS  = 64 - X_BITS - Z_BITS;
+    private static final int  Y_SHIFT = Z_BITS;
+    private static final int  X_SHIFT = Y_SHIFT + Y_BITS;
+    private static final long X_MASK  = (1L << X_BITS) - 1;
+    private static final long Y_MASK  = (1L << Y_BITS) - 1;
+    private static final long Z_MASK  = (1L << Z_BITS) - 1;
+
+    public static long pack(int x, int y, int z)
+    {
+        return ((long) x & X_MASK) << X_SHIFT | ((long) y & Y_MASK) << Y_SHIFT | ((long) z & Z_MASK);
+    }
+
+    public static int x(long packed)
+    {
+        return (int) (packed << (64 - X_SHIFT - X_BITS) >> (64 - X_BITS));
+    }
+
+    public static int y(long packed)
+    {
+        return (int) (packed << (64 - Y_SHIFT - Y_BITS) >> (64 - Y_BITS));
+    }
+
+    public static int z(long packed)
+    {
+        return (int) (packed << (64 - Z_BITS) >> (64 - Z_BITS));
+    }
+
+}
@@ -0,0 +1,93 @@
+package org.argon.roderick.minecraft.oredowsing.network;
+
+import org.argon.roderick.minecraft.oredowsing.render.DowsingRodRenderer;
+
+import io.netty.buffer.ByteBuf;
+import net.minecraft.client.Minecraft;
+import net.minecraft.util.BlockPos;
+import net.minecraft.world.World;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+// server -> client: blocks found by a scan which the client should outline
+
+public class MessageHighlightBlocks implements IMessage {
+
+    // keep each packet well under the payload limit
+    public static final int MAX_POSITIONS = 4096;
+
+    private int     dimension;
+    private double  renderDuration;
+    private boolean showOreColor;
+    private boolean targeted;
+    private long[]  positions;
+
+    public MessageHighlightBlocks()
+    {
+    }
+
+    public MessageHighlightBlocks(int parDimension, double parRenderDuration, boolean parShowOreColor,
+            boolean parTargeted, long[] parPositions)
+    {
+        dimension      = parDimension;
+        renderDuration = parRenderDuration;
+        showOreColor   = parShowOreColor;
+        targeted       = parTargeted;
+        positions      = parPositions;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf)
+    {
+        dimension      = buf.readInt();
+        renderDuration = buf.readDouble();
+        showOreColor   = buf.readBoolean();
+        targeted       = buf.readBoolean();
+        positions      = new long[buf.readInt()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = buf.readLong();
+        }
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf)
+    {
+        buf.writeInt(dimension);
+        buf.writeDouble(renderDuration);
+        buf.writeBoolean(showOreColor);
+        buf.writeBoolean(targeted);
+        buf.writeInt(positions.length);
+        for (int i = 0; i < positions.length; i++) {
+            buf.writeLong(positions[i]);
+        }
+    }
+
+    public static class Handler implements IMessageHandler<MessageHighlightBlocks, IMessage> {
+
+        @Override
+        public IMessage onMessage(final MessageHighlightBlocks message, MessageContext ctx)
+        {
+            // netty thread, hand off to the client thread
+            Minecraft.getMinecraft().addScheduledTask(new Runnable() {
+                @Override
+                public void run()
+                {
+                    Minecraft mc = Minecraft.getMinecraft();
+                    World world = mc.theWorld;
+                    if (world == null || mc.thePlayer == null
+                            || world.provider.getDimensionId() != message.dimension) {
+                        return;
+                    }
+                    for (int i = 0; i < message.positions.length; i++) {
+                        DowsingRodRenderer.addBlockToHighlight(BlockPos.fromLong(message.positions[i]),
+                                world, mc.thePlayer, message.renderDuration, message.showOreColor, message.targeted);
+                    }
+                    DowsingRodRenderer.trimHighlights(world, mc.thePlayer);
+                }
+            });
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+package org.argon.roderick.minecraft.oredowsing.network;
+
+import org.argon.roderick.minecraft.oredowsing.render.DowsingRodRenderer;
+
+import io.netty.buffer.ByteBuf;
+import net.minecraft.client.Minecraft;
+import net.minecraft.util.BlockPos;
+import net.minecraft.world.World;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+// server -> client: the veins a scan found, labelled above each vein's top block
+
+public class MessageVeinLabels implements IMessage {
+
+    public static final int MAX_LABELS = 1024;
+
+    private int     dimension;
+    private double  renderDuration;
+    private long[]  positions;
+    private int[]   sizes;
+
+    public MessageVeinLabels()
+    {
+    }
+
+    public MessageVeinLabels(int parDimension, double parRenderDuration, long[] parPositions, int[] parSizes)
+    {
+        dimension      = parDimension;
+        renderDuration = parRenderDuration;
+        positions      = parPositions;
+        sizes          = parSizes;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf)
+    {
+        dimension      = buf.readInt();
+        renderDuration = buf.readDouble();
+        positions      = new long[buf.readInt()];
+        sizes          = new int[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = buf.readLong();
+            sizes[i]     = buf.readInt();
+        }
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf)
+    {
+        buf.writeInt(dimension);
+        buf.writeDouble(renderDuration);
+        buf.writeInt(positions.length);
+        for (int i = 0; i < positions.length; i++) {
+            buf.writeLong(positions[i]);
+            buf.writeInt(sizes[i]);
+        }
+    }
+
+    public static class Handler implements IMessageHandler<MessageVeinLabels, IMessage> {
+
+        @Override
+        public IMessage onMessage(final MessageVeinLabels message, MessageContext ctx)
+        {
+            Minecraft.getMinecraft().addScheduledTask(new Runnable() {
+                @Override
+                public void run()
+                {
+                    World world = Minecraft.getMinecraft().theWorld;
+                    if (world == null || world.provider.getDimensionId() != message.dimension) {
+                        return;
+                    }
+                    for (int i = 0; i < message.positions.length; i++) {
+                        DowsingRodRenderer.addVeinLabel(BlockPos.fromLong(message.positions[i]),
+                                world, message.sizes[i], message.renderDuration);
+                    }
+                }
+            });
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,21 @@
+package org.argon.roderick.minecraft.oredowsing.network;
+
+import org.argon.roderick.minecraft.oredowsing.lib.Reference;
+
+import net.minecraftforge.fml.common.network.NetworkRegistry;
+import net.minecraftforge.fml.common.network.simpleimpl.SimpleNetworkWrapper;
+import net.minecraftforge.fml.relauncher.Side;
+
+public class PacketHandler {
+
+    public static final SimpleNetworkWrapper INSTANCE = NetworkRegistry.INSTANCE.newSimpleChannel(Reference.MODID);
+
+    private static int nextId = 0;
+
+    public static void preInit()
+    {
+        INSTANCE.registerMessage(MessageHighlightBlocks.Handler.class, MessageHighlightBlocks.class, nextId++, Side.CLIENT);
+        INSTANCE.registerMessage(MessageVeinLabels.Handler.class,      MessageVeinLabels.class,      nextId++, Side.CLIENT);
+    }
+
+}
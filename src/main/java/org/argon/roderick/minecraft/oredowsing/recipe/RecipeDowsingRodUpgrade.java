@@ -1,6 +1,7 @@
 package org.argon.roderick.minecraft.oredowsing.recipe;
 
 import org.argon.roderick.minecraft.oredowsing.items.DowsingRod;
+import org.argon.roderick.minecraft.oredowsing.items.RodState;
 
 import net.minecraft.inventory.InventoryCrafting;
 import net.minecraft.item.ItemStack;
@@ -12,6 +13,7 @@ public class RecipeDowsingRodUpgrade implements IRecipe {
     private class ParsedRecipe {
         ItemStack dowsingRodStack;
         DowsingRod dowsingRodItem;
+        RodState dowsingRodState;
         int numUpgrades;
 
         private ParsedRecipe()
@@ -70,8 +72,11 @@ public class RecipeDowsingRodUpgrade implements IRecipe {
                 return false;
             }
 
-            this.numUpgrades = num_items / items_per_upgrade;
-            return this.dowsingRodItem.canUpgrade(this.dowsingRodStack, this.numUpgrades);
+            // matches() is asked every time the grid changes, the decoded
+            // state saves going back to the rod's NBT each time
+            this.numUpgrades     = num_items / items_per_upgrade;
+            this.dowsingRodState = this.dowsingRodItem.getState(this.dowsingRodStack);
+            return this.dowsingRodState.canUpgrade(this.numUpgrades, this.dowsingRodItem.getMaxSquareRadius());
         }
     }
 
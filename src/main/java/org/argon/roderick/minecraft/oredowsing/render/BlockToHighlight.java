@@ -0,0 +1,33 @@
+package org.argon.roderick.minecraft.oredowsing.render;
+
+import net.minecraft.util.AxisAlignedBB;
+import net.minecraft.util.BlockPos;
+
+class BlockToHighlight {
+    final BlockPos pos;
+    final long renderUntilTime;
+    final int rgb; // -1 to cycle through colors
+    final boolean targeted; // found by a scan for a particular block rather than any ore
+
+    // worked out once here rather than on every frame
+    final AxisAlignedBB outline; // relative to pos, the block's shape when it was highlighted
+    final float red, green, blue;
+
+    BlockToHighlight(BlockPos parPos, long parRenderUntilTime, int parRgb, boolean parTargeted, AxisAlignedBB parOutline) {
+        this.pos = parPos;
+        this.renderUntilTime = parRenderUntilTime;
+        this.rgb = parRgb;
+        this.targeted = parTargeted;
+        this.outline = parOutline;
+        this.red   = (parRgb >> 16 & 0xFF) / 255F;
+        this.green = (parRgb >> 8  & 0xFF) / 255F;
+        this.blue  = (parRgb       & 0xFF) / 255F;
+    }
+
+    double distanceSq(double x, double y, double z) {
+        double dx = pos.getX() + 0.5D - x;
+        double dy = pos.getY() + 0.5D - y;
+        double dz = pos.getZ() + 0.5D - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+}
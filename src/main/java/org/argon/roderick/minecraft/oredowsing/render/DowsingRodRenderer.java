@@ -15,31 +15,63 @@ package org.argon.roderick.minecraft.oredowsing.render;
 //package vazkii.botania.client.core.handler;
 
 import java.awt.Color;
-import java.util.Enumeration;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
 
 import net.minecraft.block.Block;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.entity.EntityPlayerSP;
+import net.minecraft.client.gui.FontRenderer;
 import net.minecraft.client.renderer.GlStateManager;
 import net.minecraft.client.renderer.Tessellator;
 import net.minecraft.client.renderer.WorldRenderer;
+import net.minecraft.client.renderer.culling.Frustum;
+import net.minecraft.client.renderer.entity.RenderManager;
+import net.minecraft.entity.Entity;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.item.ItemStack;
 import net.minecraft.util.AxisAlignedBB;
 import net.minecraft.util.BlockPos;
 import net.minecraft.world.World;
 import net.minecraftforge.client.event.RenderWorldLastEvent;
+import net.minecraftforge.event.world.WorldEvent;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+import net.minecraftforge.fml.common.network.FMLNetworkEvent;
 import net.minecraftforge.oredict.OreDictionary;
 
 import org.argon.roderick.minecraft.oredowsing.lib.Constants;
 import org.lwjgl.opengl.GL11;
 
-// XXX store colors as Color objects not ints
-
 public final class DowsingRodRenderer {
-    private static Hashtable<BlockPos, BlockToHighlight> blocksToHighlight = new Hashtable<BlockPos, BlockToHighlight>();
+    // keyed by dimension id; nothing here holds on to a World
+    private static HashMap<Integer, HighlightGrid> highlightsByDimension = new HashMap<Integer, HighlightGrid>();
+    private static HashMap<Integer, ArrayList<VeinLabel>> veinLabelsByDimension = new HashMap<Integer, ArrayList<VeinLabel>>();
+
+    // Everything above is only touched on the client thread, in the client
+    // tick and the message handlers.  Rendering only reads the snapshot,
+    // which the tick rebuilds when something has changed.
+    private static volatile HighlightSnapshot snapshot = HighlightSnapshot.EMPTY;
+    private static boolean dirty;
+
+    private static final int   MIN_LABELLED_VEIN = 2;
+    private static final int   SWEEP_TICKS       = 10; // between expiry and air checks
+    private static final AxisAlignedBB FULL_BLOCK = new AxisAlignedBB(0, 0, 0, 1, 1, 1);
+    private static final float LABEL_SCALE       = 0.02666667F; // as for name tags
+
+    static class VeinLabel {
+        final BlockPos pos; // top block of the vein
+        final int size;
+        final long renderUntilTime;
+
+        VeinLabel(BlockPos parPos, int parSize, long parRenderUntilTime) {
+            this.pos = parPos;
+            this.size = parSize;
+            this.renderUntilTime = parRenderUntilTime;
+        }
+    }
 
     private static Hashtable<String, Integer> blockColor = new Hashtable<String, Integer>();
     static {
@@ -89,50 +121,191 @@ public final class DowsingRodRenderer {
         blockColor.put(name, rgb);
     }
 
-    private static class BlockToHighlight {
-            BlockPos pos;
-            World world;
-            long renderUntilTime;
-            int rgb;
-
-            public BlockToHighlight(BlockPos parPos, World parWorld, long parRenderUntilTime, boolean parShowOreColor) {
-                this.pos = parPos;
-                this.world = parWorld;
-                this.renderUntilTime = parRenderUntilTime;
-                this.rgb = -1;
-
-                if (parShowOreColor) {
-                    Block block = world.getBlockState(pos).getBlock();
-                    // XXX need metadata handling
-                    //int metadata = world.getBlockMetadata(pos);
-                    //int metadata = block.getDamageValue(world, pos);
-                    int ore_ids[] = OreDictionary.getOreIDs(new ItemStack(block));
-                    for (int i = 0; i < ore_ids.length; i++) {
-                        String ore_name = OreDictionary.getOreName(ore_ids[i]);
-                        if (blockColor.containsKey(ore_name)) {
-                            this.rgb = (Integer) blockColor.get(ore_name);
-                            break;
-                        }
-                    }
-                }
+    // ore color for the block at pos, -1 if it isn't a known ore
+    private static int getOreColor(World world, BlockPos pos) {
+        Block block = world.getBlockState(pos).getBlock();
+        // XXX need metadata handling
+        //int metadata = world.getBlockMetadata(pos);
+        //int metadata = block.getDamageValue(world, pos);
+        int ore_ids[] = OreDictionary.getOreIDs(new ItemStack(block));
+        for (int i = 0; i < ore_ids.length; i++) {
+            String ore_name = OreDictionary.getOreName(ore_ids[i]);
+            if (blockColor.containsKey(ore_name)) {
+                return (Integer) blockColor.get(ore_name);
             }
+        }
+        return -1;
+    }
+
+    // highlights for the dimension the client is in, null if there are none
+    static HighlightGrid getHighlights() {
+        World world = Minecraft.getMinecraft().theWorld;
+        return world == null ? null : highlightsByDimension.get(world.provider.getDimensionId());
     }
 
-    public static void addBlockToHighlight(BlockPos parPos, World parWorld, EntityPlayer parPlayer, double parRenderDuration, boolean parShowOreColor) {
+    public static void addBlockToHighlight(BlockPos parPos, World parWorld, EntityPlayer parPlayer, double parRenderDuration, boolean parShowOreColor, boolean parTargeted) {
     	//System.out.println("highlight " + parPos);
-        blocksToHighlight.put(parPos,
-                new DowsingRodRenderer.BlockToHighlight(parPos, parWorld,
+        int dimension = parWorld.provider.getDimensionId();
+        HighlightGrid grid = highlightsByDimension.get(dimension);
+        if (grid == null) {
+            grid = new HighlightGrid();
+            highlightsByDimension.put(dimension, grid);
+        }
+        // the outline is the block's shape now, rendering doesn't look at the block again
+        AxisAlignedBB outline = parWorld.getBlockState(parPos).getBlock().getSelectedBoundingBox(parWorld, parPos);
+        outline = outline == null
+                ? FULL_BLOCK
+                : outline.offset(-parPos.getX(), -parPos.getY(), -parPos.getZ());
+        grid.put(
+                new BlockToHighlight(parPos,
                             parWorld.getTotalWorldTime() + Math.round(Constants.TICKS_PER_SEC * parRenderDuration),
-                            parShowOreColor
+                            parShowOreColor ? getOreColor(parWorld, parPos) : -1,
+                            parTargeted,
+                            outline
                         )
         );
+        dirty = true;
+    }
+
+    // hold the current dimension to max_highlights, call after adding a batch
+    public static void trimHighlights(World parWorld, EntityPlayer parPlayer) {
+        HighlightGrid grid = highlightsByDimension.get(parWorld.provider.getDimensionId());
+        if (grid != null) {
+            if (grid.trim(Constants.MAX_HIGHLIGHTS, parPlayer.posX, parPlayer.posY, parPlayer.posZ, parWorld.getTotalWorldTime()) > 0) {
+                dirty = true;
+            }
+        }
+    }
+
+    public static void addVeinLabel(BlockPos parPos, World parWorld, int parSize, double parRenderDuration) {
+        if (parSize < MIN_LABELLED_VEIN) {
+            return;
+        }
+        int dimension = parWorld.provider.getDimensionId();
+        ArrayList<VeinLabel> labels = veinLabelsByDimension.get(dimension);
+        if (labels == null) {
+            labels = new ArrayList<VeinLabel>();
+            veinLabelsByDimension.put(dimension, labels);
+        }
+        for (int i = 0; i < labels.size(); i++) {
+            if (labels.get(i).pos.equals(parPos)) {
+                labels.remove(i);
+                break;
+            }
+        }
+        labels.add(new VeinLabel(parPos, parSize,
+                parWorld.getTotalWorldTime() + Math.round(Constants.TICKS_PER_SEC * parRenderDuration)));
+        dirty = true;
+    }
+
+    // The client world is replaced on every dimension change and on
+    // disconnect, release its highlights along with it.
+
+    @SubscribeEvent
+    public void onWorldUnload(WorldEvent.Unload event) {
+        if (event.world.isRemote) {
+            highlightsByDimension.remove(event.world.provider.getDimensionId());
+            veinLabelsByDimension.remove(event.world.provider.getDimensionId());
+            snapshot = HighlightSnapshot.EMPTY;
+        }
+    }
+
+    // fired on the network thread
+    @SubscribeEvent
+    public void onClientDisconnect(FMLNetworkEvent.ClientDisconnectionFromServerEvent event) {
+        Minecraft.getMinecraft().addScheduledTask(new Runnable() {
+            @Override
+            public void run() {
+                highlightsByDimension.clear();
+                veinLabelsByDimension.clear();
+                snapshot = HighlightSnapshot.EMPTY;
+            }
+        });
+    }
+
+    // Expiry and the air check every SWEEP_TICKS rather than every frame,
+    // and the snapshot rebuilt only when something has changed.
+    @SubscribeEvent
+    public void onClientTick(TickEvent.ClientTickEvent event) {
+        if (event.phase != TickEvent.Phase.END) {
+            return;
+        }
+        World world = Minecraft.getMinecraft().theWorld;
+        if (world == null) {
+            return;
+        }
+        int dimension = world.provider.getDimensionId();
+        long cur_time = world.getTotalWorldTime();
+        boolean sweep = cur_time % SWEEP_TICKS == 0;
+
+        HighlightGrid blocksToHighlight = highlightsByDimension.get(dimension);
+        if (blocksToHighlight != null && sweep) {
+            List<BlockToHighlight> stale = new ArrayList<BlockToHighlight>();
+            for (BlockToHighlight blockToHighlight : blocksToHighlight.all()) {
+                if (blockToHighlight.renderUntilTime < cur_time
+                        // XXX handle any replacement rather than just air
+                        || world.isAirBlock(blockToHighlight.pos)
+                        ) {
+                    stale.add(blockToHighlight);
+                }
+            }
+            for (BlockToHighlight blockToHighlight : stale) {
+                blocksToHighlight.remove(blockToHighlight.pos);
+            }
+            if (blocksToHighlight.isEmpty()) {
+                highlightsByDimension.remove(dimension);
+                blocksToHighlight = null;
+            }
+            dirty |= !stale.isEmpty();
+        }
+
+        ArrayList<VeinLabel> labels = veinLabelsByDimension.get(dimension);
+        if (labels != null && sweep) {
+            for (int i = labels.size() - 1; i >= 0; i--) {
+                if (labels.get(i).renderUntilTime < cur_time) {
+                    labels.remove(i);
+                    dirty = true;
+                }
+            }
+            if (labels.isEmpty()) {
+                veinLabelsByDimension.remove(dimension);
+                labels = null;
+            }
+        }
+
+        if (dirty || snapshot.dimension != dimension) {
+            snapshot = blocksToHighlight == null && labels == null
+                    ? HighlightSnapshot.EMPTY
+                    : new HighlightSnapshot(dimension,
+                            blocksToHighlight == null ? new HashMap<Long, ArrayList<BlockToHighlight>>() : blocksToHighlight.sections(),
+                            labels == null ? new ArrayList<VeinLabel>() : labels);
+            dirty = false;
+        }
     }
 
     @SubscribeEvent
     public void onWorldRenderLast(RenderWorldLastEvent event) {
-        if (blocksToHighlight.isEmpty()) {
+        HighlightSnapshot current = snapshot;
+        Minecraft mc = Minecraft.getMinecraft();
+        World world = mc.theWorld;
+        if (current.isEmpty() || world == null || current.dimension != world.provider.getDimensionId()) {
             return;
         }
+        long cur_time = world.getTotalWorldTime();
+
+        Entity viewer = mc.getRenderViewEntity();
+        double view_x = viewer.lastTickPosX + (viewer.posX - viewer.lastTickPosX) * event.partialTicks;
+        double view_y = viewer.lastTickPosY + (viewer.posY - viewer.lastTickPosY) * event.partialTicks;
+        double view_z = viewer.lastTickPosZ + (viewer.posZ - viewer.lastTickPosZ) * event.partialTicks;
+        Frustum frustum = new Frustum();
+        frustum.setPosition(view_x, view_y, view_z);
+        List<BlockToHighlight[]> visible = current.inFrustum(frustum, view_x, view_y, view_z,
+                mc.gameSettings.renderDistanceChunks * 16);
+
+        // the same cycling color for every highlight without one of its own
+        int cycle = Color.HSBtoRGB(cur_time % 200 / 200F, 0.6F, 1F);
+        float cycle_red = (cycle >> 16 & 0xFF) / 255F, cycle_green = (cycle >> 8 & 0xFF) / 255F, cycle_blue = (cycle & 0xFF) / 255F;
+        EntityPlayerSP player = mc.thePlayer;
 
         GlStateManager.pushAttrib();
         GlStateManager.pushMatrix();
@@ -144,24 +317,20 @@ public final class DowsingRodRenderer {
         GlStateManager.enableRescaleNormal();
         GlStateManager.scale(1F, 1F, 1F);
 
-        Enumeration<BlockPos> e = blocksToHighlight.keys();
-        while (e.hasMoreElements()) {
-            BlockPos keyPos = e.nextElement();
-            BlockToHighlight blockToHighlight = blocksToHighlight.get(keyPos);
-            long cur_time = blockToHighlight.world.getTotalWorldTime();
-
-            if (blockToHighlight.renderUntilTime < cur_time
-                    || blockToHighlight.world.provider.getDimensionId() != Minecraft.getMinecraft().theWorld.provider.getDimensionId()
-                    // XXX handle any replacement rather than just air
-                    || blockToHighlight.world.isAirBlock(keyPos)
-                    ) {
-                blocksToHighlight.remove(blockToHighlight.pos);
+        for (BlockToHighlight[] section : visible) {
+            for (BlockToHighlight blockToHighlight : section) {
+                if (blockToHighlight.rgb != -1) {
+                    renderBlockOutlineAt(player, blockToHighlight, blockToHighlight.red, blockToHighlight.green, blockToHighlight.blue);
+                }
+                else {
+                    renderBlockOutlineAt(player, blockToHighlight, cycle_red, cycle_green, cycle_blue);
+                }
             }
-            else {
-                renderBlockOutlineAt(blockToHighlight.pos,
-                        blockToHighlight.rgb != -1
-                            ? blockToHighlight.rgb
-                            : Color.HSBtoRGB(cur_time % 200 / 200F, 0.6F, 1F));
+        }
+
+        for (VeinLabel label : current.labels) {
+            if (frustum.isBoundingBoxInFrustum(new AxisAlignedBB(label.pos, label.pos.add(1, 2, 1)))) {
+                renderVeinLabel(label);
             }
         }
 
@@ -169,52 +338,47 @@ public final class DowsingRodRenderer {
         GlStateManager.popAttrib();
     }
 
-    private void renderBlockOutlineAt(BlockPos pos, int color) {
-        renderBlockOutlineAt(pos, color, 1F);
+    private void renderVeinLabel(VeinLabel label) {
+        Minecraft mc = Minecraft.getMinecraft();
+        EntityPlayerSP player = mc.thePlayer;
+        RenderManager rm = mc.getRenderManager();
+        FontRenderer fr = mc.fontRendererObj;
+        String text = "x" + label.size;
+
+        GlStateManager.pushMatrix();
+        GlStateManager.translate(
+                label.pos.getX() + 0.5D - player.posX,
+                label.pos.getY() + 1.5D - player.posY,
+                label.pos.getZ() + 0.5D - player.posZ);
+        GL11.glNormal3f(0F, 1F, 0F);
+        GlStateManager.rotate(-rm.playerViewY, 0F, 1F, 0F);
+        GlStateManager.rotate(rm.playerViewX, 1F, 0F, 0F);
+        GlStateManager.scale(-LABEL_SCALE, -LABEL_SCALE, LABEL_SCALE);
+        GlStateManager.enableTexture2D();
+        fr.drawString(text, -fr.getStringWidth(text) / 2, 0, 0xFFFFFF);
+        GlStateManager.disableTexture2D();
+        GlStateManager.popMatrix();
+    }
+
+    private void renderBlockOutlineAt(EntityPlayerSP player, BlockToHighlight bth, float red, float green, float blue) {
+        renderBlockOutlineAt(player, bth, red, green, blue, 1F);
     }
 
-    private void renderBlockOutlineAt(BlockPos pos, int color, float thickness) {
+    private void renderBlockOutlineAt(EntityPlayerSP player, BlockToHighlight bth, float red, float green, float blue, float thickness) {
         GlStateManager.pushMatrix();
 
-        EntityPlayerSP player = Minecraft.getMinecraft().thePlayer;
         GlStateManager.translate(
-        		pos.getX() - player.posX,
-        		pos.getY() - player.posY,
-        		pos.getZ() - player.posZ);
+        		bth.pos.getX() - player.posX,
+        		bth.pos.getY() - player.posY,
+        		bth.pos.getZ() - player.posZ);
 
-        Color colorRGB = new Color(color);
+        GlStateManager.color(red, green, blue, 255);
+        GL11.glLineWidth(thickness);
+        renderBlockOutline(bth.outline);
 
-        World world = Minecraft.getMinecraft().theWorld;
-        Block block = world.getBlockState(pos).getBlock();
-       drawWireframe : {
-            if (block != null) {
-                AxisAlignedBB axis;
-
-                //if(block instanceof IWireframeAABBProvider)
-                //  axis = ((IWireframeAABBProvider) block).getWireframeAABB(world, pos.getX(), pos.getY(), pos.getZ());
-                //else
-                    axis = block.getSelectedBoundingBox(world, pos);
-
-                if (axis == null)
-                    break drawWireframe;
-
-                axis = new AxisAlignedBB(
-                                axis.minX - pos.getX(),
-                                axis.minY - pos.getY(),
-                                axis.minZ - pos.getZ(),
-                                axis.maxX - pos.getX(),
-                                axis.maxY - pos.getY(),
-                                axis.maxZ - pos.getZ());
-
-                GlStateManager.color(colorRGB.getRed()/255F, colorRGB.getGreen()/255F, colorRGB.getBlue()/255F, 255);
-                GL11.glLineWidth(thickness);
-                renderBlockOutline(axis);
-
-                GlStateManager.color(colorRGB.getRed()/255F, colorRGB.getGreen()/255F, colorRGB.getBlue()/255F, 64);
-                GL11.glLineWidth(thickness + 1F);
-                renderBlockOutline(axis);
-            }
-        }
+        GlStateManager.color(red, green, blue, 64);
+        GL11.glLineWidth(thickness + 1F);
+        renderBlockOutline(bth.outline);
 
         GlStateManager.popMatrix();
     }
@@ -0,0 +1,301 @@
+package org.argon.roderick.minecraft.oredowsing.render;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import net.minecraft.util.BlockPos;
+
+// Highlighted blocks bucketed by the 16x16x16 chunk section they're in, so
+// proximity and visibility questions only have to look at the nearby (or
+// visible) sections rather than every highlight.  Kept up to date
+// incrementally as highlights are added and removed.
+
+class HighlightGrid {
+
+    private final HashMap<BlockPos, BlockToHighlight>        byPos     = new HashMap<BlockPos, BlockToHighlight>();
+    private final HashMap<Long, ArrayList<BlockToHighlight>> bySection = new HashMap<Long, ArrayList<BlockToHighlight>>();
+
+    static long sectionKey(int sx, int sy, int sz)
+    {
+        return ((long) (sx & 0x3FFFFF) << 42) | ((long) (sz & 0x3FFFFF) << 20) | (sy & 0xFFFFF);
+    }
+
+    private static long sectionKey(BlockPos pos)
+    {
+        return sectionKey(pos.getX() >> 4, pos.getY() >> 4, pos.getZ() >> 4);
+    }
+
+    public int size()
+    {
+        return byPos.size();
+    }
+
+    public boolean isEmpty()
+    {
+        return byPos.isEmpty();
+    }
+
+    public Collection<BlockToHighlight> all()
+    {
+        return Collections.unmodifiableCollection(byPos.values());
+    }
+
+    public void put(BlockToHighlight bth)
+    {
+        BlockToHighlight old = byPos.put(bth.pos, bth);
+        Long key = sectionKey(bth.pos);
+        ArrayList<BlockToHighlight> section = bySection.get(key);
+        if (section == null) {
+            section = new ArrayList<BlockToHighlight>(4);
+            bySection.put(key, section);
+        }
+        else if (old != null) {
+            section.remove(old);
+        }
+        section.add(bth);
+    }
+
+    public BlockToHighlight remove(BlockPos pos)
+    {
+        BlockToHighlight old = byPos.remove(pos);
+        if (old != null) {
+            Long key = sectionKey(pos);
+            ArrayList<BlockToHighlight> section = bySection.get(key);
+            section.remove(old);
+            if (section.isEmpty()) {
+                bySection.remove(key);
+            }
+        }
+        return old;
+    }
+
+    // all highlights within radius of (x, y, z), in no particular order
+
+    public List<BlockToHighlight> withinRadius(double x, double y, double z, double radius)
+    {
+        List<BlockToHighlight> out = new ArrayList<BlockToHighlight>();
+        double radiusSq = radius * radius;
+
+        int sr = (int) Math.ceil(radius / 16) + 1;
+        int cx = (int) Math.floor(x) >> 4, cy = (int) Math.floor(y) >> 4, cz = (int) Math.floor(z) >> 4;
+
+        if (cubeVolume(sr) <= bySection.size()) {
+            for (int sx = cx - sr; sx <= cx + sr; sx++) {
+                for (int sy = cy - sr; sy <= cy + sr; sy++) {
+                    for (int sz = cz - sr; sz <= cz + sr; sz++) {
+                        addWithin(bySection.get(sectionKey(sx, sy, sz)), x, y, z, radiusSq, out);
+                    }
+                }
+            }
+        }
+        else {
+            // sparse, cheaper to look at the occupied sections
+            for (ArrayList<BlockToHighlight> section : bySection.values()) {
+                if (sectionDistanceSq(section.get(0).pos, x, y, z) <= radiusSq) {
+                    addWithin(section, x, y, z, radiusSq, out);
+                }
+            }
+        }
+        return out;
+    }
+
+    // the k highlights nearest (x, y, z) no further than maxDistance, nearest first
+
+    public List<BlockToHighlight> nearest(final double x, final double y, final double z, int k, double maxDistance)
+    {
+        Comparator<BlockToHighlight> farthestFirst = new Comparator<BlockToHighlight>() {
+            @Override
+            public int compare(BlockToHighlight a, BlockToHighlight b)
+            {
+                return Double.compare(b.distanceSq(x, y, z), a.distanceSq(x, y, z));
+            }
+        };
+        // max-heap on distance so the worst of the best k is at the head
+        PriorityQueue<BlockToHighlight> best = new PriorityQueue<BlockToHighlight>(k + 1, farthestFirst);
+        double maxDistanceSq = maxDistance * maxDistance;
+        int maxShell = (int) Math.ceil(maxDistance / 16) + 1;
+        int cx = (int) Math.floor(x) >> 4, cy = (int) Math.floor(y) >> 4, cz = (int) Math.floor(z) >> 4;
+
+        if (cubeVolume(maxShell) <= bySection.size()) {
+            for (int shell = 0; shell <= maxShell; shell++) {
+                // nothing in this shell can be closer than this
+                double shellMin = Math.max(0, (shell - 1) * 16);
+                if (best.size() >= k && best.peek().distanceSq(x, y, z) < shellMin * shellMin) {
+                    break;
+                }
+                for (int sx = cx - shell; sx <= cx + shell; sx++) {
+                    for (int sy = cy - shell; sy <= cy + shell; sy++) {
+                        for (int sz = cz - shell; sz <= cz + shell; sz++) {
+                            if (Math.abs(sx - cx) == shell || Math.abs(sy - cy) == shell || Math.abs(sz - cz) == shell) {
+                                offerAll(bySection.get(sectionKey(sx, sy, sz)), x, y, z, k, maxDistanceSq, best);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        else {
+            for (ArrayList<BlockToHighlight> section : bySection.values()) {
+                double d = sectionDistanceSq(section.get(0).pos, x, y, z);
+                if (d <= maxDistanceSq && (best.size() < k || d < best.peek().distanceSq(x, y, z))) {
+                    offerAll(section, x, y, z, k, maxDistanceSq, best);
+                }
+            }
+        }
+
+        ArrayList<BlockToHighlight> out = new ArrayList<BlockToHighlight>(best);
+        Collections.sort(out, Collections.reverseOrder(farthestFirst));
+        return out;
+    }
+
+    // Remove the least worth keeping until at most max are left, returns
+    // how many were removed.  Hits from targeted scans outrank any-ore hits;
+    // within those, the farther away and the sooner it would expire anyway,
+    // the less a highlight is worth.
+
+    public int trim(int max, final double x, final double y, final double z, final long now)
+    {
+        int excess = byPos.size() - max;
+        if (excess <= 0) {
+            return 0;
+        }
+        Comparator<BlockToHighlight> mostWorthFirst = new Comparator<BlockToHighlight>() {
+            @Override
+            public int compare(BlockToHighlight a, BlockToHighlight b)
+            {
+                if (a.targeted != b.targeted) {
+                    return a.targeted ? -1 : 1;
+                }
+                return Double.compare(worth(b, x, y, z, now), worth(a, x, y, z, now));
+            }
+        };
+        // the best of the worst excess at the head
+        PriorityQueue<BlockToHighlight> worst = new PriorityQueue<BlockToHighlight>(excess + 1, mostWorthFirst);
+        for (BlockToHighlight bth : byPos.values()) {
+            if (worst.size() < excess) {
+                worst.add(bth);
+            }
+            else if (mostWorthFirst.compare(bth, worst.peek()) > 0) {
+                worst.poll();
+                worst.add(bth);
+            }
+        }
+        for (BlockToHighlight bth : worst) {
+            remove(bth.pos);
+        }
+        return worst.size();
+    }
+
+    private static double worth(BlockToHighlight bth, double x, double y, double z, long now)
+    {
+        return Math.max(1, bth.renderUntilTime - now) / (1 + Math.sqrt(bth.distanceSq(x, y, z)));
+    }
+
+    // each occupied section's highlights by sectionKey, for HighlightSnapshot
+    public Map<Long, ArrayList<BlockToHighlight>> sections()
+    {
+        return Collections.unmodifiableMap(bySection);
+    }
+
+    // Add to out the values of a map keyed by sectionKey whose sections
+    // overlap the box of blocks (x0, y0, z0) to (x1, y1, z1).  Each section
+    // of the box is looked up, unless the box holds more sections than the
+    // map does, when the map is gone through instead.
+
+    static <T> void sectionsIn(Map<Long, T> sections, int x0, int y0, int z0, int x1, int y1, int z1, List<T> out)
+    {
+        int sx0 = x0 >> 4, sy0 = Math.max(0, y0 >> 4), sz0 = z0 >> 4;
+        int sx1 = x1 >> 4, sy1 = Math.min(15, y1 >> 4), sz1 = z1 >> 4;
+        if (sx0 > sx1 || sy0 > sy1 || sz0 > sz1) {
+            return;
+        }
+
+        if ((long) (sx1 - sx0 + 1) * (sy1 - sy0 + 1) * (sz1 - sz0 + 1) <= sections.size()) {
+            for (int sx = sx0; sx <= sx1; sx++) {
+                for (int sy = sy0; sy <= sy1; sy++) {
+                    for (int sz = sz0; sz <= sz1; sz++) {
+                        T section = sections.get(sectionKey(sx, sy, sz));
+                        if (section != null) {
+                            out.add(section);
+                        }
+                    }
+                }
+            }
+        }
+        else {
+            for (Map.Entry<Long, T> e : sections.entrySet()) {
+                long key = e.getKey();
+                // undo sectionKey, sign extending each field
+                int sx = (int) (key >> 42);
+                int sz = (int) (key << 22 >> 42);
+                int sy = (int) (key << 44 >> 44);
+                if (sx >= sx0 && sx <= sx1 && sy >= sy0 && sy <= sy1 && sz >= sz0 && sz <= sz1) {
+                    out.add(e.getValue());
+                }
+            }
+        }
+    }
+
+    private static long cubeVolume(int sectionRadius)
+    {
+        long side = 2L * sectionRadius + 1;
+        return side * side * side;
+    }
+
+    // squared distance from (x, y, z) to the nearest point of pos's section
+
+    private static double sectionDistanceSq(BlockPos pos, double x, double y, double z)
+    {
+        double dx = axisDistance(pos.getX() & ~15, x);
+        double dy = axisDistance(pos.getY() & ~15, y);
+        double dz = axisDistance(pos.getZ() & ~15, z);
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static double axisDistance(int min, double v)
+    {
+        return v < min ? min - v : v > min + 16 ? v - (min + 16) : 0;
+    }
+
+    private static void addWithin(List<BlockToHighlight> section, double x, double y, double z, double radiusSq, List<BlockToHighlight> out)
+    {
+        if (section == null) {
+            return;
+        }
+        for (int i = 0; i < section.size(); i++) {
+            BlockToHighlight bth = section.get(i);
+            if (bth.distanceSq(x, y, z) <= radiusSq) {
+                out.add(bth);
+            }
+        }
+    }
+
+    private static void offerAll(List<BlockToHighlight> section, double x, double y, double z,
+            int k, double maxDistanceSq, PriorityQueue<BlockToHighlight> best)
+    {
+        if (section == null) {
+            return;
+        }
+        for (int i = 0; i < section.size(); i++) {
+            BlockToHighlight bth = section.get(i);
+            double d = bth.distanceSq(x, y, z);
+            if (d > maxDistanceSq) {
+                continue;
+            }
+            if (best.size() < k) {
+                best.add(bth);
+            }
+            else if (d < best.peek().distanceSq(x, y, z)) {
+                best.poll();
+                best.add(bth);
+            }
+        }
+    }
+
+}
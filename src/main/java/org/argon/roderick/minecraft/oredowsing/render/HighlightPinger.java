@@ -0,0 +1,59 @@
+package org.argon.roderick.minecraft.oredowsing.render;
+
+import java.util.List;
+
+import org.argon.roderick.minecraft.oredowsing.items.DowsingRod;
+import org.argon.roderick.minecraft.oredowsing.lib.Constants;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.item.ItemStack;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+
+// While a dowsing rod is in hand, ping at a rate which rises as the player
+// gets closer to the nearest highlighted block.
+
+public class HighlightPinger {
+
+    private static final String SOUND     = "note.pling";
+    private static final int    MIN_DELAY = 3;  // ticks between pings when on top of it
+    private static final int    MAX_DELAY = 30; // ... and at the edge of ping_range
+
+    private int ticksUntilPing = 0;
+
+    @SubscribeEvent
+    public void onClientTick(TickEvent.ClientTickEvent event)
+    {
+        if (event.phase != TickEvent.Phase.END || Constants.PING_RANGE <= 0) {
+            return;
+        }
+        if (ticksUntilPing > 0) {
+            ticksUntilPing--;
+            return;
+        }
+
+        EntityPlayer player = Minecraft.getMinecraft().thePlayer;
+        HighlightGrid highlights = DowsingRodRenderer.getHighlights();
+        if (player == null || highlights == null || highlights.isEmpty()) {
+            return;
+        }
+        ItemStack held = player.getHeldItem();
+        if (held == null || !(held.getItem() instanceof DowsingRod)) {
+            return;
+        }
+
+        List<BlockToHighlight> nearest = highlights.nearest(
+                player.posX, player.posY + player.getEyeHeight(), player.posZ, 1, Constants.PING_RANGE);
+        if (nearest.isEmpty()) {
+            return;
+        }
+
+        double closeness = 1 - Math.sqrt(nearest.get(0).distanceSq(
+                player.posX, player.posY + player.getEyeHeight(), player.posZ)) / Constants.PING_RANGE;
+        closeness = Math.max(0, Math.min(1, closeness));
+        player.playSound(SOUND, 0.5F, 0.5F + 1.5F * (float) closeness);
+        ticksUntilPing = MAX_DELAY - (int) Math.round((MAX_DELAY - MIN_DELAY) * closeness);
+    }
+
+}
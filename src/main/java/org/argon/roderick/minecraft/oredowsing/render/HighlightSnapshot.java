@@ -0,0 +1,74 @@
+package org.argon.roderick.minecraft.oredowsing.render;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraft.client.renderer.culling.ICamera;
+import net.minecraft.util.AxisAlignedBB;
+import net.minecraft.util.MathHelper;
+
+// What the renderer draws, frozen.  DowsingRodRenderer rebuilds one on the
+// client tick whenever the highlights have changed and swaps it in whole,
+// so a frame never sees a half-updated set and never does any of the
+// bookkeeping itself.  Sections are keyed as in HighlightGrid so a frame
+// only looks at those within view distance.
+
+final class HighlightSnapshot {
+
+    static final HighlightSnapshot EMPTY = new HighlightSnapshot(Integer.MIN_VALUE,
+            new HashMap<Long, ArrayList<BlockToHighlight>>(), new ArrayList<DowsingRodRenderer.VeinLabel>());
+
+    private static class Section {
+        final BlockToHighlight[] highlights;
+        final AxisAlignedBB      bounds;
+
+        Section(BlockToHighlight[] parHighlights)
+        {
+            highlights = parHighlights;
+            int x0 = highlights[0].pos.getX() & ~15, y0 = highlights[0].pos.getY() & ~15, z0 = highlights[0].pos.getZ() & ~15;
+            bounds = new AxisAlignedBB(x0, y0, z0, x0 + 16, y0 + 16, z0 + 16);
+        }
+    }
+
+    final int dimension;
+    private final HashMap<Long, Section> sections; // by HighlightGrid.sectionKey
+    final DowsingRodRenderer.VeinLabel[] labels;
+
+    HighlightSnapshot(int parDimension, Map<Long, ArrayList<BlockToHighlight>> parSections,
+            List<DowsingRodRenderer.VeinLabel> parLabels)
+    {
+        dimension = parDimension;
+        sections  = new HashMap<Long, Section>(parSections.size() * 2);
+        for (Map.Entry<Long, ArrayList<BlockToHighlight>> e : parSections.entrySet()) {
+            ArrayList<BlockToHighlight> section = e.getValue();
+            sections.put(e.getKey(), new Section(section.toArray(new BlockToHighlight[section.size()])));
+        }
+        labels = parLabels.toArray(new DowsingRodRenderer.VeinLabel[parLabels.size()]);
+    }
+
+    boolean isEmpty()
+    {
+        return sections.isEmpty() && labels.length == 0;
+    }
+
+    // the highlights of each section within range of (x, y, z) which the
+    // camera can see
+    List<BlockToHighlight[]> inFrustum(ICamera camera, double x, double y, double z, double range)
+    {
+        List<Section> near = new ArrayList<Section>();
+        HighlightGrid.sectionsIn(sections,
+                MathHelper.floor_double(x - range), MathHelper.floor_double(y - range), MathHelper.floor_double(z - range),
+                MathHelper.floor_double(x + range), MathHelper.floor_double(y + range), MathHelper.floor_double(z + range),
+                near);
+        List<BlockToHighlight[]> out = new ArrayList<BlockToHighlight[]>(near.size());
+        for (Section section : near) {
+            if (camera.isBoundingBoxInFrustum(section.bounds)) {
+                out.add(section.highlights);
+            }
+        }
+        return out;
+    }
+
+}
@@ -0,0 +1,318 @@
+package org.argon.roderick.minecraft.oredowsing.scan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+// Ore counts for one dimension at three resolutions:
+//
+//     section  16x16x16 blocks, per chunk column
+//     cell     2x2x2 sections (32x32x32 blocks)
+//     column   a whole chunk column
+//
+// All three are kept in step as chunks are counted and ore blocks are
+// broken or placed, so long-range questions can be answered from the cells
+// and columns without touching any blocks.
+
+public class OreDensityMap {
+
+    public static final int CELL_SHIFT = 5; // 32 blocks
+
+    private static class Column {
+        final int[][] sections = new int[16][]; // [section][ore type], null if no ores
+        int[] totals = new int[0];              // [ore type]
+    }
+
+    // what a long-range query found for one ore type
+    public static class Hint {
+        public final int oreType;
+        public int count;     // in the whole query area
+        public int bestCount; // in the densest cell
+        public int dx, dy, dz; // from the query point to the centre of the densest cell
+
+        Hint(int parOreType)
+        {
+            oreType = parOreType;
+        }
+    }
+
+    private final HashMap<Long, Column> columns = new HashMap<Long, Column>();
+    private final HashMap<Long, int[]>  cells   = new HashMap<Long, int[]>();
+
+    // [section][ore type] over every counted column, for OreHeightBands
+    private final int[][] sectionTotals = new int[16][];
+
+    private static long cellKey(int cx, int cy, int cz)
+    {
+        return ((long) (cx & 0x3FFFFF) << 42) | ((long) (cz & 0x3FFFFF) << 20) | (cy & 0xFFFFF);
+    }
+
+    static int[] add(int[] counts, int type, int delta)
+    {
+        if (type >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(type + 1, OreTypes.count()));
+        }
+        counts[type] += delta;
+        return counts;
+    }
+
+    public boolean isCounted(int chunkX, int chunkZ)
+    {
+        return columns.containsKey(ChunkCoordIntPair.chunkXZ2Int(chunkX, chunkZ));
+    }
+
+    public int getNumColumns()
+    {
+        return columns.size();
+    }
+
+    public int[] getColumnTotals(int chunkX, int chunkZ)
+    {
+        Column column = columns.get(ChunkCoordIntPair.chunkXZ2Int(chunkX, chunkZ));
+        return column == null ? null : column.totals;
+    }
+
+    // (re)count every section of a chunk, returns the number of blocks examined
+
+    public int countChunk(Chunk chunk)
+    {
+        removeColumn(chunk.xPosition, chunk.zPosition);
+
+        Column column = new Column();
+        ExtendedBlockStorage[] storageArray = chunk.getBlockStorageArray();
+        int examined = 0;
+
+        for (int sy = 0; sy < storageArray.length && sy < 16; sy++) {
+            ExtendedBlockStorage storage = storageArray[sy];
+            if (storage == null || storage.isEmpty()) {
+                continue;
+            }
+            int[] counts = null;
+            for (int y = 0; y < 16; y++) {
+                for (int z = 0; z < 16; z++) {
+                    for (int x = 0; x < 16; x++) {
+                        int type = OreTypes.typeOf(storage.get(x, y, z));
+                        if (type != OreTypes.NONE) {
+                            counts = add(counts == null ? new int[OreTypes.count()] : counts, type, 1);
+                        }
+                    }
+                }
+            }
+            examined += 4096;
+            column.sections[sy] = counts;
+        }
+
+        columns.put(ChunkCoordIntPair.chunkXZ2Int(chunk.xPosition, chunk.zPosition), column);
+        for (int sy = 0; sy < 16; sy++) {
+            int[] counts = column.sections[sy];
+            if (counts == null) {
+                continue;
+            }
+            for (int type = 0; type < counts.length; type++) {
+                if (counts[type] != 0) {
+                    column.totals = add(column.totals, type, counts[type]);
+                    addToCell(chunk.xPosition, sy, chunk.zPosition, type, counts[type]);
+                    addToSectionTotals(sy, type, counts[type]);
+                }
+            }
+        }
+        return examined;
+    }
+
+    public void removeColumn(int chunkX, int chunkZ)
+    {
+        Column column = columns.remove(ChunkCoordIntPair.chunkXZ2Int(chunkX, chunkZ));
+        if (column == null) {
+            return;
+        }
+        for (int sy = 0; sy < 16; sy++) {
+            int[] counts = column.sections[sy];
+            if (counts == null) {
+                continue;
+            }
+            for (int type = 0; type < counts.length; type++) {
+                if (counts[type] != 0) {
+                    addToCell(chunkX, sy, chunkZ, type, -counts[type]);
+                    addToSectionTotals(sy, type, -counts[type]);
+                }
+            }
+        }
+    }
+
+    // a single block changed; ignored if its chunk hasn't been counted yet
+
+    public void blockChanged(int x, int y, int z, IBlockState oldState, IBlockState newState)
+    {
+        if (y < 0 || y > 255) {
+            return;
+        }
+        int oldType = oldState == null ? OreTypes.NONE : OreTypes.typeOf(oldState);
+        int newType = newState == null ? OreTypes.NONE : OreTypes.typeOf(newState);
+        if (oldType == newType) {
+            return;
+        }
+        Column column = columns.get(ChunkCoordIntPair.chunkXZ2Int(x >> 4, z >> 4));
+        if (column == null) {
+            return;
+        }
+        if (oldType != OreTypes.NONE) {
+            adjust(column, x, y, z, oldType, -1);
+        }
+        if (newType != OreTypes.NONE) {
+            adjust(column, x, y, z, newType, 1);
+        }
+    }
+
+    private void adjust(Column column, int x, int y, int z, int type, int delta)
+    {
+        int sy = y >> 4;
+        column.sections[sy] = add(column.sections[sy] == null ? new int[0] : column.sections[sy], type, delta);
+        column.totals       = add(column.totals, type, delta);
+        addToCell(x >> 4, sy, z >> 4, type, delta);
+        addToSectionTotals(sy, type, delta);
+    }
+
+    private void addToSectionTotals(int sy, int type, int delta)
+    {
+        sectionTotals[sy] = add(sectionTotals[sy] == null ? new int[0] : sectionTotals[sy], type, delta);
+    }
+
+    // { lowest, highest } section any of this ore has been counted in, null
+    // if none has been
+
+    public int[] getSectionRange(int type)
+    {
+        int lo = -1, hi = -1;
+        for (int sy = 0; sy < 16; sy++) {
+            int[] counts = sectionTotals[sy];
+            if (counts != null && type < counts.length && counts[type] > 0) {
+                if (lo < 0) {
+                    lo = sy;
+                }
+                hi = sy;
+            }
+        }
+        return lo < 0 ? null : new int[] { lo, hi };
+    }
+
+    // fraction of the counted blocks at section sy which are this ore (any
+    // ore for OreTypes.NONE), -1 if nothing has been counted
+
+    public double getDensity(int sy, int type)
+    {
+        if (columns.isEmpty()) {
+            return -1;
+        }
+        int[] counts = sectionTotals[sy];
+        long n = 0;
+        if (counts != null) {
+            for (int t = 0; t < counts.length; t++) {
+                if (type == OreTypes.NONE || type == t) {
+                    n += counts[t];
+                }
+            }
+        }
+        return (double) n / ((long) columns.size() * 4096);
+    }
+
+    private void addToCell(int chunkX, int sy, int chunkZ, int type, int delta)
+    {
+        Long key = cellKey(chunkX >> 1, sy >> 1, chunkZ >> 1);
+        int[] counts = cells.get(key);
+        counts = add(counts == null ? new int[0] : counts, type, delta);
+        if (delta < 0 && isEmpty(counts)) {
+            // nothing left in it, e.g. its columns were all forgotten
+            cells.remove(key);
+        }
+        else {
+            cells.put(key, counts);
+        }
+    }
+
+    private static boolean isEmpty(int[] counts)
+    {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Summarise the ores within radius of (x, y, z) from the cells, one hint
+    // per ore type (or just oreType if it isn't NONE), most plentiful first.
+
+    public List<Hint> query(int x, int y, int z, int radius, int oreType)
+    {
+        HashMap<Integer, Hint> hints = new HashMap<Integer, Hint>();
+
+        int cx0 = (x - radius) >> CELL_SHIFT, cx1 = (x + radius) >> CELL_SHIFT;
+        int cy0 = Math.max(0, y - radius) >> CELL_SHIFT, cy1 = Math.min(255, y + radius) >> CELL_SHIFT;
+        int cz0 = (z - radius) >> CELL_SHIFT, cz1 = (z + radius) >> CELL_SHIFT;
+
+        for (int cx = cx0; cx <= cx1; cx++) {
+            for (int cy = cy0; cy <= cy1; cy++) {
+                for (int cz = cz0; cz <= cz1; cz++) {
+                    int[] counts = cells.get(cellKey(cx, cy, cz));
+                    if (counts == null) {
+                        continue;
+                    }
+                    int t0 = oreType == OreTypes.NONE ? 0             : oreType;
+                    int t1 = oreType == OreTypes.NONE ? counts.length : Math.min(counts.length, oreType + 1);
+                    for (int type = t0; type < t1; type++) {
+                        if (counts[type] <= 0) {
+                            continue;
+                        }
+                        Hint hint = hints.get(type);
+                        if (hint == null) {
+                            hint = new Hint(type);
+                            hints.put(type, hint);
+                        }
+                        hint.count += counts[type];
+                        if (counts[type] > hint.bestCount) {
+                            hint.bestCount = counts[type];
+                            hint.dx = (cx << CELL_SHIFT) + 16 - x;
+                            hint.dy = (cy << CELL_SHIFT) + 16 - y;
+                            hint.dz = (cz << CELL_SHIFT) + 16 - z;
+                        }
+                    }
+                }
+            }
+        }
+
+        List<Hint> out = new ArrayList<Hint>(hints.values());
+        Collections.sort(out, new Comparator<Hint>() {
+            @Override
+            public int compare(Hint a, Hint b)
+            {
+                return b.count - a.count;
+            }
+        });
+        return out;
+    }
+
+    // fraction of the chunk columns within radius of (x, z) which have been counted
+
+    public double coverage(int x, int z, int radius)
+    {
+        int counted = 0, total = 0;
+        for (int chunkX = (x - radius) >> 4; chunkX <= (x + radius) >> 4; chunkX++) {
+            for (int chunkZ = (z - radius) >> 4; chunkZ <= (z + radius) >> 4; chunkZ++) {
+                total++;
+                if (isCounted(chunkX, chunkZ)) {
+                    counted++;
+                }
+            }
+        }
+        return total == 0 ? 0 : (double) counted / total;
+    }
+
+}
@@ -0,0 +1,217 @@
+package org.argon.roderick.minecraft.oredowsing.scan;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+import org.argon.roderick.minecraft.oredowsing.lib.Constants;
+
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.event.terraingen.PopulateChunkEvent;
+import net.minecraftforge.event.world.BlockEvent;
+import net.minecraftforge.event.world.ChunkEvent;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.fml.common.eventhandler.EventPriority;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+
+// Keeps an OreDensityMap per server dimension up to date.  Loaded chunks
+// are queued and counted a few per tick rather than inside the load event;
+// broken and placed blocks are applied straight away.  Changes made other
+// ways (explosions, other mods' machines) are only picked up when the chunk
+// is next counted.
+//
+// When a chunk unloads its counts are kept, so the long range hints still
+// know about where players have been, but only for the most recent
+// density_unloaded_columns of them; older ones are dropped from the map.
+
+public class OreDensityTracker {
+
+    private static class Dimension {
+        final OreDensityMap map = new OreDensityMap();
+        final LinkedHashSet<Long> pending = new LinkedHashSet<Long>();
+        final LinkedHashSet<Long> unloaded = new LinkedHashSet<Long>(); // counted, oldest unload first
+        World world; // null while the dimension is unloaded
+    }
+
+    private static final HashMap<Integer, Dimension> dimensions = new HashMap<Integer, Dimension>();
+
+    private static Dimension getDimension(World world)
+    {
+        int id = world.provider.getDimensionId();
+        Dimension dim = dimensions.get(id);
+        if (dim == null) {
+            dim = new Dimension();
+            dimensions.put(id, dim);
+        }
+        return dim;
+    }
+
+    // null if nothing has been counted in that world yet
+    public static OreDensityMap getMap(World world)
+    {
+        Dimension dim = dimensions.get(world.provider.getDimensionId());
+        return dim == null ? null : dim.map;
+    }
+
+    // count a chunk now rather than waiting for its turn, for WarmupCrawler
+    static void countNow(World world, Chunk chunk)
+    {
+        Dimension dim = getDimension(world);
+        dim.pending.remove(ChunkCoordIntPair.chunkXZ2Int(chunk.xPosition, chunk.zPosition));
+        dim.map.countChunk(chunk);
+    }
+
+    // count a chunk which was read from its save rather than loaded, so
+    // counts as one which has unloaded already
+    static void countSaved(World world, Chunk chunk)
+    {
+        Dimension dim = getDimension(world);
+        long key = ChunkCoordIntPair.chunkXZ2Int(chunk.xPosition, chunk.zPosition);
+        dim.pending.remove(key);
+        dim.map.countChunk(chunk);
+        dim.unloaded.remove(key);
+        addUnloaded(dim, key);
+    }
+
+    public static void enqueue(World world, int chunkX, int chunkZ)
+    {
+        getDimension(world).pending.add(ChunkCoordIntPair.chunkXZ2Int(chunkX, chunkZ));
+    }
+
+    // counted columns whose chunks have since unloaded, in world
+    public static int getNumUnloaded(World world)
+    {
+        Dimension dim = dimensions.get(world.provider.getDimensionId());
+        return dim == null ? 0 : dim.unloaded.size();
+    }
+
+    public static int getNumPending()
+    {
+        int n = 0;
+        for (Dimension dim : dimensions.values()) {
+            n += dim.pending.size();
+        }
+        return n;
+    }
+
+    // the server is stopping, forget everything (the next one may be a different save)
+    public static void clear()
+    {
+        dimensions.clear();
+    }
+
+    @SubscribeEvent
+    public void onWorldLoad(WorldEvent.Load event)
+    {
+        if (!event.world.isRemote) {
+            getDimension(event.world).world = event.world;
+        }
+    }
+
+    @SubscribeEvent
+    public void onWorldUnload(WorldEvent.Unload event)
+    {
+        if (!event.world.isRemote) {
+            // keep the counts, the chunks' unloads have already bounded them
+            Dimension dim = getDimension(event.world);
+            dim.world = null;
+            dim.pending.clear();
+        }
+    }
+
+    @SubscribeEvent
+    public void onChunkLoad(ChunkEvent.Load event)
+    {
+        if (!event.world.isRemote) {
+            // counted again once its turn comes
+            getDimension(event.world).unloaded.remove(
+                    ChunkCoordIntPair.chunkXZ2Int(event.getChunk().xPosition, event.getChunk().zPosition));
+            enqueue(event.world, event.getChunk().xPosition, event.getChunk().zPosition);
+        }
+    }
+
+    @SubscribeEvent
+    public void onChunkUnload(ChunkEvent.Unload event)
+    {
+        if (event.world.isRemote) {
+            return;
+        }
+        Dimension dim = getDimension(event.world);
+        long key = ChunkCoordIntPair.chunkXZ2Int(event.getChunk().xPosition, event.getChunk().zPosition);
+        dim.pending.remove(key);
+        if (!dim.map.isCounted(event.getChunk().xPosition, event.getChunk().zPosition)) {
+            return;
+        }
+        addUnloaded(dim, key);
+    }
+
+    // keeping no more than density_unloaded_columns of them
+    private static void addUnloaded(Dimension dim, long key)
+    {
+        dim.unloaded.add(key);
+        Iterator<Long> it = dim.unloaded.iterator();
+        while (dim.unloaded.size() > Math.max(0, Constants.DENSITY_UNLOADED_COLUMNS)) {
+            long oldest = it.next();
+            it.remove();
+            dim.map.removeColumn((int) oldest, (int) (oldest >>> 32));
+        }
+    }
+
+    // ores are added after the chunk was first loaded
+    @SubscribeEvent
+    public void onPopulateChunk(PopulateChunkEvent.Post event)
+    {
+        if (!event.world.isRemote) {
+            enqueue(event.world, event.chunkX, event.chunkZ);
+        }
+    }
+
+    @SubscribeEvent(priority = EventPriority.LOWEST)
+    public void onBlockBreak(BlockEvent.BreakEvent event)
+    {
+        if (!event.world.isRemote) {
+            getDimension(event.world).map.blockChanged(
+                    event.pos.getX(), event.pos.getY(), event.pos.getZ(), event.state, null);
+        }
+    }
+
+    @SubscribeEvent(priority = EventPriority.LOWEST)
+    public void onBlockPlace(BlockEvent.PlaceEvent event)
+    {
+        if (!event.world.isRemote) {
+            getDimension(event.world).map.blockChanged(
+                    event.pos.getX(), event.pos.getY(), event.pos.getZ(),
+                    event.blockSnapshot.getReplacedBlock(), event.placedBlock);
+        }
+    }
+
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event)
+    {
+        if (event.phase != TickEvent.Phase.END) {
+            return;
+        }
+        int  budget   = Constants.DENSITY_CHUNKS_PER_TICK;
+        long deadline = System.nanoTime() + (long) (Constants.DENSITY_MILLIS_PER_TICK * 1000000);
+        for (Dimension dim : dimensions.values()) {
+            if (dim.world == null) {
+                continue;
+            }
+            Iterator<Long> it = dim.pending.iterator();
+            while (budget > 0 && it.hasNext() && System.nanoTime() < deadline) {
+                long key = it.next();
+                it.remove();
+                int chunkX = (int) key, chunkZ = (int) (key >>> 32);
+                // don't bring it back if it has been unloaded in the meantime
+                if (dim.world.getChunkProvider().chunkExists(chunkX, chunkZ)) {
+                    dim.map.countChunk(dim.world.getChunkFromChunkCoords(chunkX, chunkZ));
+                    budget--;
+                }
+            }
+        }
+    }
+
+}
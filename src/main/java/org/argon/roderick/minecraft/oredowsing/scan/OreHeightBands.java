@@ -0,0 +1,80 @@
+package org.argon.roderick.minecraft.oredowsing.scan;
+
+import java.util.HashMap;
+
+import org.argon.roderick.minecraft.oredowsing.lib.Constants;
+
+// Which chunk sections a targeted scan needs to look at for a given ore.
+// Most ores only generate in a narrow band of heights, so a scan for
+// diamonds from the surface can skip nearly the whole cube.  The band is
+// either pinned in the config (y_bands) or learned from the sections the
+// ore has been counted in by the dimension's OreDensityMap, once enough
+// chunks have been counted to trust it.  A learned band is widened by a
+// section each way since it only covers what happens to be loaded.
+
+public final class OreHeightBands {
+
+    private static final int LEARNED_MARGIN = 1; // sections
+
+    // ore type -> { lowest, highest } section, parsed from the config on first use
+    private static HashMap<Integer, int[]> pinned;
+
+    // { lowest, highest } section to scan for oreType, null to scan them all;
+    // map is the dimension's OreDensityMap, null if it has none
+    public static int[] getSectionRange(OreDensityMap map, int oreType)
+    {
+        if (oreType == OreTypes.NONE) {
+            return null;
+        }
+        int[] band = getPinned().get(oreType);
+        if (band != null) {
+            return band;
+        }
+        return getLearnedSectionRange(map, oreType);
+    }
+
+    // as getSectionRange, from map alone
+    public static int[] getLearnedSectionRange(OreDensityMap map, int oreType)
+    {
+        if (oreType == OreTypes.NONE
+                || Constants.Y_BAND_MIN_CHUNKS <= 0 || map == null || map.getNumColumns() < Constants.Y_BAND_MIN_CHUNKS) {
+            return null;
+        }
+        int[] band = map.getSectionRange(oreType);
+        if (band == null) {
+            // never seen here, perhaps it only turns up somewhere not yet loaded
+            return null;
+        }
+        return new int[] { Math.max(0, band[0] - LEARNED_MARGIN), Math.min(15, band[1] + LEARNED_MARGIN) };
+    }
+
+    private static HashMap<Integer, int[]> getPinned()
+    {
+        if (pinned != null) {
+            return pinned;
+        }
+        pinned = new HashMap<Integer, int[]>();
+        for (String entry : Constants.Y_BANDS) {
+            // oreName=min-max, anything else is ignored
+            int eq   = entry.indexOf('=');
+            int dash = entry.lastIndexOf('-');
+            if (eq < 1 || dash < eq + 2) {
+                continue;
+            }
+            try {
+                int minY = Integer.parseInt(entry.substring(eq + 1, dash).trim());
+                int maxY = Integer.parseInt(entry.substring(dash + 1).trim());
+                minY = Math.max(0, minY);
+                maxY = Math.min(255, maxY);
+                if (minY <= maxY) {
+                    pinned.put(OreTypes.getId(entry.substring(0, eq).trim()), new int[] { minY >> 4, maxY >> 4 });
+                }
+            }
+            catch (NumberFormatException e) {
+                continue;
+            }
+        }
+        return pinned;
+    }
+
+}
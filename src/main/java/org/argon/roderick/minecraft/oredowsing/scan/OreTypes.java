@@ -0,0 +1,79 @@
+package org.argon.roderick.minecraft.oredowsing.scan;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import org.argon.roderick.minecraft.oredowsing.lib.cofhDummy;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.item.ItemStack;
+import net.minecraftforge.oredict.OreDictionary;
+
+// Small integer ids for the ore dictionary "ore*" names, so that summaries
+// can count ores by type in plain int arrays.  Server thread only.
+
+public final class OreTypes {
+
+    public static final int NONE = -1;
+
+    private static final ArrayList<String>        names = new ArrayList<String>();
+    private static final HashMap<String, Integer> ids   = new HashMap<String, Integer>();
+
+    private static final IdentityHashMap<IBlockState, Integer> stateTypes = new IdentityHashMap<IBlockState, Integer>();
+
+    public static int count()
+    {
+        return names.size();
+    }
+
+    public static String getName(int type)
+    {
+        return names.get(type);
+    }
+
+    // "oreNetherIron" -> "NetherIron"
+    public static String getShortName(int type)
+    {
+        return getName(type).substring(cofhDummy.ORE.length());
+    }
+
+    public static int getId(String oreName)
+    {
+        Integer id = ids.get(oreName);
+        if (id == null) {
+            id = names.size();
+            names.add(oreName);
+            ids.put(oreName, id);
+        }
+        return id;
+    }
+
+    public static int typeOf(ItemStack stack)
+    {
+        if (stack == null || stack.getItem() == null) {
+            return NONE;
+        }
+        int ore_ids[] = OreDictionary.getOreIDs(stack);
+        for (int i = 0; i < ore_ids.length; i++) {
+            String ore_name = OreDictionary.getOreName(ore_ids[i]);
+            if (ore_name.startsWith(cofhDummy.ORE)) {
+                return getId(ore_name);
+            }
+        }
+        return NONE;
+    }
+
+    public static int typeOf(IBlockState bstate)
+    {
+        Integer type = stateTypes.get(bstate);
+        if (type == null) {
+            Block block = bstate.getBlock();
+            type = typeOf(new ItemStack(block, 1, block.damageDropped(bstate)));
+            stateTypes.put(bstate, type);
+        }
+        return type;
+    }
+
+}
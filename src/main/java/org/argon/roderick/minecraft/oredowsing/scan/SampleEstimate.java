@@ -0,0 +1,50 @@
+package org.argon.roderick.minecraft.oredowsing.scan;
+
+// What sampling one section of a scan found, see ScanJob.  confidence is
+// how sure we are the section's real density is on the side of
+// sample_escalate_density it was judged to be on (normal approximation,
+// with half a hit added so an empty sample isn't taken as certain).
+
+public class SampleEstimate {
+
+    public final int chunkX, section, chunkZ;
+    public final int volume;  // blocks of the section inside the cube
+    public final int samples;
+    public final int matches;
+    public final double  density;
+    public final double  confidence;
+    public final boolean escalated; // scanned exactly afterwards
+
+    SampleEstimate(int parChunkX, int parSection, int parChunkZ, int parVolume, int parSamples, int parMatches, double threshold)
+    {
+        chunkX  = parChunkX;
+        section = parSection;
+        chunkZ  = parChunkZ;
+        volume  = parVolume;
+        samples = parSamples;
+        matches = parMatches;
+        density = samples == 0 ? 0 : (double) matches / samples;
+
+        double p  = (matches + 0.5D) / (samples + 1);
+        double se = Math.sqrt(p * (1 - p) / (samples + 1));
+        confidence = normalCdf(Math.abs(threshold - density) / se);
+        escalated  = density > threshold;
+    }
+
+    // ores expected among the blocks which weren't sampled
+    public double getEstimatedUnsampled()
+    {
+        return density * (volume - samples);
+    }
+
+    // Abramowitz and Stegun 7.1.26, good to about 1e-7
+    private static double normalCdf(double z)
+    {
+        double x = Math.abs(z) / Math.sqrt(2);
+        double t = 1 / (1 + 0.3275911 * x);
+        double erf = 1 - t * (0.254829592 + t * (-0.284496736 + t * (1.421413741 + t * (-1.453152027 + t * 1.061405429))))
+                * Math.exp(-x * x);
+        return 0.5 * (1 + (z < 0 ? -erf : erf));
+    }
+
+}
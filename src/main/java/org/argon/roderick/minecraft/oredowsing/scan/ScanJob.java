@@ -0,0 +1,634 @@
+package org.argon.roderick.minecraft.oredowsing.scan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Random;
+import java.util.UUID;
+
+import org.argon.roderick.minecraft.oredowsing.items.DowsingRod;
+import org.argon.roderick.minecraft.oredowsing.lib.Constants;
+import org.argon.roderick.minecraft.oredowsing.lib.IntArrayList;
+import org.argon.roderick.minecraft.oredowsing.lib.IntHashSet;
+import org.argon.roderick.minecraft.oredowsing.lib.LongArrayList;
+import org.argon.roderick.minecraft.oredowsing.lib.PackedPos;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.item.ItemStack;
+import net.minecraft.util.BlockPos;
+import net.minecraft.util.MathHelper;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+// One queued scan of the cube around a player.  The cube is walked one
+// chunk section at a time so that the scheduler can stop between sections
+// and pick the job up again on a later tick.  When the target is a block
+// with a tile entity (pipes, cables, machines) a column can instead be
+// walked through its tile entity map, all at once.  ScanPlanner picks the
+// cheapest way through each column and section.
+//
+// A job can carry several filters (one per rod, see DowsingRod's hotbar
+// mode) which are all checked in the same pass: each block state is looked
+// up once for the set of filters it matches, so N rods cost little more
+// than one.
+
+public class ScanJob {
+
+    public static final int MAX_FILTERS = 32; // bits in a hit's filter mask
+
+    // what one rod is looking for
+    public static class Filter {
+        public final DowsingRod rod;
+        public final ItemStack  targetStack; // null for any ore
+        public final int        radius;
+        public final boolean    showOreColor;
+
+        public Filter(DowsingRod parRod, ItemStack parTargetStack, int parRadius, boolean parShowOreColor)
+        {
+            rod          = parRod;
+            targetStack  = parTargetStack;
+            radius       = parRadius;
+            showOreColor = parShowOreColor;
+        }
+    }
+
+    public final UUID           ownerId;
+    public final EntityPlayerMP player; // null for simulated scans
+    public final World          world;
+    public final Filter[]       filters;
+    public final DowsingRod     rod;          // these four are filters[0]'s ...
+    public final ItemStack      targetStack;
+    public final boolean        showOreColor;
+    public final int            radius;       // ... except this is the largest radius
+
+    private final int centerX, centerY, centerZ;
+
+    public final int minX, minY, minZ;
+    public final int maxX, maxY, maxZ;
+
+    private final int minChunkX, maxChunkX;
+    private final int minChunkZ, maxChunkZ;
+    private final int minSection, maxSection;
+
+    // the target has a tile entity, so chunks' tile entity maps can be
+    // looked at rather than every block
+    private final boolean tileEntityMode;
+    private boolean columnTileEntities; // ... and the current column's is
+
+    private final ScanPlanner planner;
+
+    private final long    filter;    // SectionCache.filterKey, for a job with a single filter
+    private final boolean cacheable;
+    private short[] sectionBuffer;
+
+    // Very large cubes are sampled: a fraction of each section's blocks,
+    // spread over 4x4x4 strata, and only sections which look rich enough
+    // are then scanned exactly.  null if the whole cube is scanned.
+    public final ArrayList<SampleEstimate> estimates;
+    private final Random sampleRand;
+    private final int[]  stratum; // offsets into a stratum, shuffled to pick its samples
+
+    private int   curChunkX, curChunkZ, curSection;
+    private Chunk curChunk;
+    private boolean done;
+
+    // statistics, in server ticks
+    long submitTick;
+    long startTick = -1;
+    long blocksScanned;
+    int  chunksScanned;
+    int  chunksSkipped; // not loaded when the scan got to them
+    int  sectionsPruned; // outside the target's height band, see OreHeightBands
+
+    public final LongArrayList hits       = new LongArrayList();
+    public final IntArrayList  hitFilters = new IntArrayList(); // for each hit, bit i set if filters[i] matched
+    private IntHashSet hitSet; // by VeinFinder.indexOf, made on the first hit and dropped once the veins are found
+    private VeinFinder veinFinder;
+    public VeinFinder.Result veins;
+
+    // ore dictionary lookups are slow, a cube only holds a handful of
+    // distinct states; state -> mask of the filters it matches
+    private final IdentityHashMap<IBlockState, Integer> matchCache = new IdentityHashMap<IBlockState, Integer>();
+
+    public ScanJob(DowsingRod parRod, World parWorld, EntityPlayerMP parPlayer,
+            ItemStack parTargetStack, int parRadius, boolean parShowOreColor)
+    {
+        this(parWorld, parPlayer,
+                new Filter[] { new Filter(parRod, parTargetStack, parRadius, parShowOreColor) });
+    }
+
+    public ScanJob(World parWorld, EntityPlayerMP parPlayer, Filter[] parFilters)
+    {
+        this(parWorld, parPlayer, parPlayer.getUniqueID(),
+                MathHelper.floor_double(parPlayer.posX),
+                MathHelper.floor_double(parPlayer.posY),
+                MathHelper.floor_double(parPlayer.posZ),
+                parFilters);
+    }
+
+    protected ScanJob(DowsingRod parRod, World parWorld, EntityPlayerMP parPlayer, UUID parOwnerId,
+            int x, int y, int z,
+            ItemStack parTargetStack, int parRadius, boolean parShowOreColor)
+    {
+        this(parWorld, parPlayer, parOwnerId, x, y, z,
+                new Filter[] { new Filter(parRod, parTargetStack, parRadius, parShowOreColor) });
+    }
+
+    protected ScanJob(World parWorld, EntityPlayerMP parPlayer, UUID parOwnerId,
+            int x, int y, int z, Filter[] parFilters)
+    {
+        if (parFilters.length < 1 || parFilters.length > MAX_FILTERS) {
+            throw new IllegalArgumentException("between 1 and " + MAX_FILTERS + " filters, not " + parFilters.length);
+        }
+        world        = parWorld;
+        player       = parPlayer;
+        ownerId      = parOwnerId;
+        filters      = parFilters;
+        rod          = filters[0].rod;
+        targetStack  = filters[0].targetStack;
+        showOreColor = filters[0].showOreColor;
+        int r = 0;
+        for (Filter f : filters) {
+            r = Math.max(r, f.radius);
+        }
+        radius  = r;
+        centerX = x;
+        centerY = y;
+        centerZ = z;
+
+        minX = x - radius;
+        maxX = x + radius;
+        minY = Math.max(0,   y - radius);
+        maxY = Math.min(255, y + radius);
+        minZ = z - radius;
+        maxZ = z + radius;
+
+        minChunkX  = minX >> 4;
+        maxChunkX  = maxX >> 4;
+        minChunkZ  = minZ >> 4;
+        maxChunkZ  = maxZ >> 4;
+        // a targeted scan only needs the sections its ore turns up in; with
+        // several filters, the sections any of them do
+        int lo = minY >> 4, hi = maxY >> 4;
+        int[] band = null;
+        for (Filter f : filters) {
+            int[] b = f.targetStack == null ? null : getSectionRange(OreTypes.typeOf(f.targetStack));
+            if (b == null) {
+                band = null;
+                break;
+            }
+            band = band == null ? b : new int[] { Math.min(band[0], b[0]), Math.max(band[1], b[1]) };
+        }
+        if (band != null && minY <= maxY) {
+            lo = Math.max(lo, band[0]);
+            hi = Math.min(hi, band[1]);
+            sectionsPruned = ((maxY >> 4) - (minY >> 4) + 1 - Math.max(0, hi - lo + 1))
+                    * (maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1);
+        }
+        minSection = lo;
+        maxSection = hi;
+        boolean allTileEntities = true;
+        for (Filter f : filters) {
+            allTileEntities &= hasTileEntity(f.targetStack);
+        }
+        tileEntityMode = allTileEntities;
+        planner        = new ScanPlanner(getDensityMap(), filters);
+        filter         = SectionCache.filterKey(targetStack);
+        cacheable      = filters.length == 1; // the cache is keyed by a single filter
+        if (Constants.SAMPLE_RADIUS > 0 && radius >= Constants.SAMPLE_RADIUS && !tileEntityMode) {
+            estimates  = new ArrayList<SampleEstimate>();
+            sampleRand = new Random();
+            stratum    = new int[64];
+        }
+        else {
+            estimates  = null;
+            sampleRand = null;
+            stratum    = null;
+        }
+
+        curChunkX  = minChunkX;
+        curChunkZ  = minChunkZ;
+        curSection = minSection;
+        done       = minY > maxY || minSection > maxSection;
+    }
+
+    private static boolean hasTileEntity(ItemStack stack)
+    {
+        if (stack == null) {
+            return false;
+        }
+        Block block = Block.getBlockFromItem(stack.getItem());
+        return block != null && block.hasTileEntity(block.getStateFromMeta(stack.getMetadata()));
+    }
+
+    public boolean isTileEntityMode()
+    {
+        return tileEntityMode;
+    }
+
+    // scanned and grouped into veins
+    public boolean isDone()
+    {
+        return done && veins != null;
+    }
+
+    public int getVolume()
+    {
+        return (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+    }
+
+    // null if the chunk isn't loaded; a scan never loads or generates chunks
+    // itself, a rod used at the edge of the loaded area would otherwise
+    // drag them in from disk (or the generator) on the server thread
+    protected Chunk getChunk(int chunkX, int chunkZ)
+    {
+        return world.getChunkProvider().chunkExists(chunkX, chunkZ)
+                ? world.getChunkFromChunkCoords(chunkX, chunkZ)
+                : null;
+    }
+
+    public long getBlocksScanned()
+    {
+        return blocksScanned;
+    }
+
+    // ticks between being queued and being given the first slice, -1 if it hasn't started
+    public long getWaitTicks()
+    {
+        return startTick < 0 ? -1 : startTick - submitTick;
+    }
+
+    public int getSectionsPruned()
+    {
+        return sectionsPruned;
+    }
+
+    public int getChunksScanned()
+    {
+        return chunksScanned;
+    }
+
+    public int getChunksSkipped()
+    {
+        return chunksSkipped;
+    }
+
+    // fraction of the cube's chunk columns which were actually scanned
+    public double getCoverage()
+    {
+        int total = chunksScanned + chunksSkipped;
+        return total == 0 ? 1 : (double) chunksScanned / total;
+    }
+
+    // The dimension's OreDensityMap, null if it has none yet, and the height
+    // band it gives for oreType (see OreHeightBands).  Both are called from
+    // the constructor, so an override mustn't rely on its own fields.
+    protected OreDensityMap getDensityMap()
+    {
+        return OreDensityTracker.getMap(world);
+    }
+
+    protected int[] getSectionRange(int oreType)
+    {
+        return OreHeightBands.getSectionRange(getDensityMap(), oreType);
+    }
+
+    // null to always scan the blocks
+    protected SectionCache getSectionCache()
+    {
+        return SectionCache.SHARED;
+    }
+
+    // called by the scheduler once the results have been delivered
+    protected void finished(long latencyTicks)
+    {
+    }
+
+    // Scan whole sections until at least maxBlocks have been examined or the
+    // cube is finished, then group the hits into veins within what's left of
+    // maxBlocks.  Returns the number of blocks examined, which goes over
+    // maxBlocks by at most the last section (or tile entity column).
+
+    public int step(int maxBlocks)
+    {
+        int examined = 0;
+
+        while (!done && examined < maxBlocks) {
+            int from = hits.size();
+            int section = curSection;
+            int chunkX = curChunkX, chunkZ = curChunkZ;
+            examined += scanSection();
+            if (columnTileEntities) {
+                section = -1;
+            }
+            if (hits.size() > from && player != null && !ScanListeners.isEmpty()) {
+                ScanListeners.fireSectionHits(this, chunkX, section, chunkZ, from, hits.size());
+            }
+            advance();
+        }
+        if (done && veins == null && examined < maxBlocks) {
+            if (veinFinder == null) {
+                veinFinder = new VeinFinder(this, hitSet);
+            }
+            examined += veinFinder.step(maxBlocks - examined);
+            if (veinFinder.isFinished()) {
+                veins      = veinFinder.getResult();
+                veinFinder = null;
+                hitSet     = null;
+            }
+        }
+        blocksScanned += examined;
+        return examined;
+    }
+
+    private void advance()
+    {
+        if (++curSection <= maxSection) {
+            return;
+        }
+        curSection = minSection;
+        curChunk   = null;
+        if (++curChunkZ <= maxChunkZ) {
+            return;
+        }
+        curChunkZ = minChunkZ;
+        if (++curChunkX <= maxChunkX) {
+            return;
+        }
+        done = true;
+    }
+
+    private int scanSection()
+    {
+        if (curChunk == null) {
+            curChunk = getChunk(curChunkX, curChunkZ);
+            if (curChunk == null) {
+                // skip the whole column, advance() moves on to the next one
+                chunksSkipped++;
+                curSection = maxSection;
+                return 1;
+            }
+            chunksScanned++;
+            columnTileEntities = tileEntityMode
+                    && planner.planColumn(curChunk.getTileEntityMap().size(), getColumnBlockCost());
+        }
+
+        if (columnTileEntities) {
+            // the whole column at once, advance() moves on to the next one
+            curSection = maxSection;
+            int cost = scanTileEntities();
+            ScanPlanner.record(ScanPlanner.Strategy.TILE_ENTITIES, planner.getEstimate(), cost);
+            return cost;
+        }
+
+        ExtendedBlockStorage storage = curChunk.getBlockStorageArray()[curSection];
+        if (storage == null || storage.isEmpty()) {
+            // nothing but air, charge a token amount so the loop stays bounded
+            return 1;
+        }
+
+        int x0 = Math.max(minX, curChunkX << 4),  x1 = Math.min(maxX, (curChunkX << 4) + 15);
+        int y0 = Math.max(minY, curSection << 4), y1 = Math.min(maxY, (curSection << 4) + 15);
+        int z0 = Math.max(minZ, curChunkZ << 4),  z1 = Math.min(maxZ, (curChunkZ << 4) + 15);
+        int volume = (x1 - x0 + 1) * (y1 - y0 + 1) * (z1 - z0 + 1);
+
+        SectionCache cache = cacheable ? getSectionCache() : null;
+        boolean cached = cache != null && cache.contains(world, curChunkX, curSection, curChunkZ, filter);
+        ScanPlanner.Strategy plan = planner.planSection(curSection, volume, cache != null, cached, estimates != null);
+        double estimatedCost = planner.getEstimate();
+        int cost;
+
+        if (plan == ScanPlanner.Strategy.SAMPLED) {
+            SampleEstimate estimate = sampleBlocks(storage, x0, x1, y0, y1, z0, z1);
+            estimates.add(estimate);
+            cost = estimate.samples;
+            if (estimate.escalated) {
+                cost += scanExactly(planner.planSection(curSection, volume, cache != null, false, false),
+                        cache, storage, x0, x1, y0, y1, z0, z1);
+            }
+        }
+        else {
+            cost = scanExactly(plan, cache, storage, x0, x1, y0, y1, z0, z1);
+        }
+        ScanPlanner.record(plan, estimatedCost, cost);
+        return cost;
+    }
+
+    // blocks a walk of the current column section by section would examine
+    private long getColumnBlockCost()
+    {
+        ExtendedBlockStorage[] storages = curChunk.getBlockStorageArray();
+        int dx = Math.min(maxX, (curChunkX << 4) + 15) - Math.max(minX, curChunkX << 4) + 1;
+        int dz = Math.min(maxZ, (curChunkZ << 4) + 15) - Math.max(minZ, curChunkZ << 4) + 1;
+        long cost = 0;
+        for (int sy = minSection; sy <= maxSection; sy++) {
+            if (storages[sy] == null || storages[sy].isEmpty()) {
+                cost++;
+            }
+            else {
+                cost += dx * (Math.min(maxY, (sy << 4) + 15) - Math.max(minY, sy << 4) + 1) * dz;
+            }
+        }
+        return cost;
+    }
+
+    private int scanExactly(ScanPlanner.Strategy plan, SectionCache cache,
+            ExtendedBlockStorage storage, int x0, int x1, int y0, int y1, int z0, int z1)
+    {
+        return plan == ScanPlanner.Strategy.BLOCKS
+                ? scanBlocks(storage, x0, x1, y0, y1, z0, z1)
+                : scanCached(cache, storage, x0, x1, y0, y1, z0, z1);
+    }
+
+    // the section's hits from the cache, scanning it whole into the cache
+    // first if it isn't there
+    private int scanCached(SectionCache cache, ExtendedBlockStorage storage, int x0, int x1, int y0, int y1, int z0, int z1)
+    {
+        short[] local = cache.get(world, curChunkX, curSection, curChunkZ, filter);
+        int cost;
+        if (local == null) {
+            local = scanWholeSection(storage);
+            cache.put(world, curChunkX, curSection, curChunkZ, filter, local);
+            cost = 4096;
+        }
+        else {
+            cost = local.length + 1;
+        }
+        for (int i = 0; i < local.length; i++) {
+            int x = (curChunkX  << 4) + (local[i]      & 15);
+            int z = (curChunkZ  << 4) + (local[i] >> 4 & 15);
+            int y = (curSection << 4) + (local[i] >> 8 & 15);
+            if (x >= x0 && x <= x1 && y >= y0 && y <= y1 && z >= z0 && z <= z1) {
+                addHit(x, y, z, 1);
+            }
+        }
+        return cost;
+    }
+
+    private int scanBlocks(ExtendedBlockStorage storage, int x0, int x1, int y0, int y1, int z0, int z1)
+    {
+        int x, y, z;
+
+        for (y = y0; y <= y1; y++) {
+            for (z = z0; z <= z1; z++) {
+                for (x = x0; x <= x1; x++) {
+                    int mask = matchMask(storage.get(x & 15, y & 15, z & 15));
+                    if (mask != 0) {
+                        addHit(x, y, z, mask);
+                    }
+                }
+            }
+        }
+        return (x1 - x0 + 1) * (y1 - y0 + 1) * (z1 - z0 + 1);
+    }
+
+    // Probe sample_fraction of the blocks of this part of the section,
+    // stratified over 4x4x4 cubes and seeded by the section so a repeated
+    // scan samples the same blocks.  Each stratum's are drawn without
+    // replacement, so no block is counted twice.  Unless the section is to
+    // be scanned exactly, what the samples hit are kept as hits.
+
+    private SampleEstimate sampleBlocks(ExtendedBlockStorage storage, int x0, int x1, int y0, int y1, int z0, int z1)
+    {
+        sampleRand.setSeed(SectionCache.sectionKey(world.provider.getDimensionId(), curChunkX, curSection, curChunkZ));
+        int from = hits.size();
+        int samples = 0, matched = 0;
+
+        for (int sy = y0 & ~3; sy <= y1; sy += 4) {
+            for (int sz = z0 & ~3; sz <= z1; sz += 4) {
+                for (int sx = x0 & ~3; sx <= x1; sx += 4) {
+                    // this stratum, clipped to the cube
+                    int ax = Math.max(x0, sx), bx = Math.min(x1, sx + 3);
+                    int ay = Math.max(y0, sy), by = Math.min(y1, sy + 3);
+                    int az = Math.max(z0, sz), bz = Math.min(z1, sz + 3);
+                    int w = bx - ax + 1, d = bz - az + 1;
+                    int v = w * (by - ay + 1) * d;
+                    int n = Math.min(v, Math.max(1, (int) Math.round(Constants.SAMPLE_FRACTION * v)));
+                    for (int i = 0; i < v; i++) {
+                        stratum[i] = i;
+                    }
+                    for (int i = 0; i < n; i++) {
+                        // partial Fisher-Yates: the first n of a shuffle
+                        int j = i + sampleRand.nextInt(v - i);
+                        int offset = stratum[j];
+                        stratum[j] = stratum[i];
+                        stratum[i] = offset;
+                        int x = ax + offset % w;
+                        int z = az + offset / w % d;
+                        int y = ay + offset / (w * d);
+                        samples++;
+                        int mask = matchMask(storage.get(x & 15, y & 15, z & 15));
+                        if (mask != 0) {
+                            matched++;
+                            addHit(x, y, z, mask);
+                        }
+                    }
+                }
+            }
+        }
+
+        SampleEstimate estimate = new SampleEstimate(curChunkX, curSection, curChunkZ,
+                (x1 - x0 + 1) * (y1 - y0 + 1) * (z1 - z0 + 1), samples, matched,
+                Constants.SAMPLE_ESCALATE_DENSITY);
+        if (estimate.escalated) {
+            // the exact scan will find them again
+            for (int i = from; i < hits.size(); i++) {
+                long pos = hits.get(i);
+                hitSet.remove(VeinFinder.indexOf(this, PackedPos.x(pos), PackedPos.y(pos), PackedPos.z(pos)));
+            }
+            hits.truncate(from);
+            hitFilters.truncate(from);
+        }
+        return estimate;
+    }
+
+    private short[] scanWholeSection(ExtendedBlockStorage storage)
+    {
+        if (sectionBuffer == null) {
+            sectionBuffer = new short[4096];
+        }
+        return scanWholeSection(this, storage, sectionBuffer);
+    }
+
+    // Hits in the whole of a section, as y << 8 | z << 4 | x, for job's
+    // filters or, with job null, as an any-ore filter (SectionCache.ANY_ORE)
+    // matches them: blocks with an ore dictionary name starting with "ore",
+    // which is what OreTypes goes by.  buffer is room for 4096.
+    static short[] scanWholeSection(ScanJob job, ExtendedBlockStorage storage, short[] buffer)
+    {
+        int n = 0;
+        for (int i = 0; i < 4096; i++) {
+            IBlockState bstate = storage.get(i & 15, i >> 8 & 15, i >> 4 & 15);
+            if (job != null ? job.matchMask(bstate) != 0 : OreTypes.typeOf(bstate) != OreTypes.NONE) {
+                buffer[n++] = (short) i;
+            }
+        }
+        return Arrays.copyOf(buffer, n);
+    }
+
+    // cost is one per tile entity in the column, inside the cube or not
+    private int scanTileEntities()
+    {
+        int y0 = Math.max(minY, minSection << 4), y1 = Math.min(maxY, (maxSection << 4) + 15);
+        int examined = 1;
+
+        for (Object key : curChunk.getTileEntityMap().keySet()) {
+            BlockPos pos = (BlockPos) key;
+            examined++;
+            int x = pos.getX(), y = pos.getY(), z = pos.getZ();
+            if (x < minX || x > maxX || y < y0 || y > y1 || z < minZ || z > maxZ) {
+                continue;
+            }
+            int mask = matchMask(curChunk.getBlockState(pos));
+            if (mask != 0) {
+                addHit(x, y, z, mask);
+            }
+        }
+        return examined;
+    }
+
+    private void addHit(int x, int y, int z, int mask)
+    {
+        if (filters.length > 1) {
+            // each rod only reports what's within its own radius
+            int d = Math.max(Math.abs(x - centerX), Math.max(Math.abs(y - centerY), Math.abs(z - centerZ)));
+            for (int i = 0; i < filters.length; i++) {
+                if (d > filters[i].radius) {
+                    mask &= ~(1 << i);
+                }
+            }
+            if (mask == 0) {
+                return;
+            }
+        }
+        if (hitSet == null) {
+            hitSet = new IntHashSet();
+        }
+        if (hitSet.add(VeinFinder.indexOf(this, x, y, z))) {
+            hits.add(PackedPos.pack(x, y, z));
+            hitFilters.add(mask);
+        }
+    }
+
+    private int matchMask(IBlockState bstate)
+    {
+        Integer cached = matchCache.get(bstate);
+        if (cached == null) {
+            Block block = bstate.getBlock();
+            ItemStack world_stack = new ItemStack(block, 1, block.damageDropped(bstate));
+            int mask = 0;
+            for (int i = 0; i < filters.length; i++) {
+                if (filters[i].rod.blockMatches(filters[i].targetStack, world_stack)) {
+                    mask |= 1 << i;
+                }
+            }
+            cached = mask;
+            matchCache.put(bstate, cached);
+        }
+        return cached;
+    }
+
+}
@@ -0,0 +1,23 @@
+package org.argon.roderick.minecraft.oredowsing.scan;
+
+// For other mods (minimaps, HUDs, automation) and our own logging: told
+// about each scan as it runs, register with ScanListeners.  Everything is
+// called on the server thread, in the middle of the scheduler's tick, so
+// keep it quick.  Simulated scans (LoadSimulatorTest) aren't reported.
+
+public interface ScanListener {
+
+    // the scan has been given its first slice of work
+    void onScanStart(ScanJob job);
+
+    // Hits found in one section (or, for a tile entity scan, one chunk
+    // column, with section -1) are job.hits.get(from) to job.hits.get(to - 1),
+    // as BlockPos.toLong.  The list only ever grows, so they can be read in
+    // place, now or until the scan completes.
+    void onSectionHits(ScanJob job, int chunkX, int section, int chunkZ, int from, int to);
+
+    // every block has been looked at, the veins found and the results sent;
+    // see the job's getters for its statistics
+    void onScanComplete(ScanJob job, long latencyTicks);
+
+}
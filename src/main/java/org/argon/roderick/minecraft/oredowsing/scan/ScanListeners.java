@@ -0,0 +1,49 @@
+package org.argon.roderick.minecraft.oredowsing.scan;
+
+import java.util.ArrayList;
+
+// Where ScanListeners are registered, normally from another mod's init.
+
+public final class ScanListeners {
+
+    private static final ArrayList<ScanListener> listeners = new ArrayList<ScanListener>();
+
+    public static void register(ScanListener listener)
+    {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    public static void unregister(ScanListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    static boolean isEmpty()
+    {
+        return listeners.isEmpty();
+    }
+
+    static void fireStart(ScanJob job)
+    {
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onScanStart(job);
+        }
+    }
+
+    static void fireSectionHits(ScanJob job, int chunkX, int section, int chunkZ, int from, int to)
+    {
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onSectionHits(job, chunkX, section, chunkZ, from, to);
+        }
+    }
+
+    static void fireComplete(ScanJob job, long latencyTicks)
+    {
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onScanComplete(job, latencyTicks);
+        }
+    }
+
+}
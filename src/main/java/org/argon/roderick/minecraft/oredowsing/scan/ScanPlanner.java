@@ -0,0 +1,160 @@
+package org.argon.roderick.minecraft.oredowsing.scan;
+
+import org.argon.roderick.minecraft.oredowsing.lib.Constants;
+
+// Picks how a ScanJob looks at each part of its cube, by what each way is
+// expected to cost in blocks examined (the unit the scheduler's budget is
+// in).  The estimates come from what's at hand without touching a block:
+// how many tile entities a column has, which sections are empty, how much
+// of the cube a section covers, what the section cache already holds, and
+// how rare the target is at that height according to the dimension's
+// OreDensityMap.  So every rod, whatever its radius and target, takes the
+// cheapest way through each section without any tuning.
+//
+// A column of a scan for blocks with tile entities is either walked through
+// its tile entity map or section by section, whichever is less.  A section
+// is then
+//   CACHED         already in the section cache, only its hits are copied
+//   WHOLE_SECTION  scanned whole into the cache, charged only its share
+//                  since the next scan nearby gets it for free
+//   BLOCKS         the part of it inside the cube examined block by block
+//   SAMPLED        sampled (scans of sample_radius and up only, since it
+//                  trades accuracy), and then scanned exactly if it turns
+//                  out rich, which is likely where the ore is common
+//
+// Height band pruning (OreHeightBands) happens before any of this: a
+// section it rules out costs nothing to plan.
+//
+// The estimate and the actual cost of every choice are added up per
+// strategy for /oredowsing stats.
+
+public class ScanPlanner {
+
+    public enum Strategy { TILE_ENTITIES, CACHED, WHOLE_SECTION, BLOCKS, SAMPLED }
+
+    private static final int SECTION_BLOCKS = 4096;
+    private static final int CACHE_SHARERS  = 2;    // scans expected to use each section put in the cache
+    private static final int STRATUM_BLOCKS = 64;   // see ScanJob.sampleBlocks
+    private static final double UNKNOWN_ESCALATION = 0.5D;
+
+    // statistics, by Strategy.ordinal()
+    private static final long[] planned   = new long[Strategy.values().length];
+    private static final long[] estimated = new long[Strategy.values().length];
+    private static final long[] actual    = new long[Strategy.values().length];
+
+    // expected matches per block for the job's filters at each section, -1
+    // where that isn't known
+    private final double[] density = new double[16];
+
+    // the estimated cost of the last plan
+    private double estimate;
+
+    // map is the dimension's OreDensityMap, null if it has none
+    ScanPlanner(OreDensityMap map, ScanJob.Filter[] filters)
+    {
+        boolean known = map != null && map.getNumColumns() >= Math.max(1, Constants.Y_BAND_MIN_CHUNKS);
+        for (int sy = 0; sy < 16; sy++) {
+            density[sy] = known ? 0 : -1;
+        }
+        for (ScanJob.Filter f : filters) {
+            int type = f.targetStack == null ? OreTypes.NONE : OreTypes.typeOf(f.targetStack);
+            for (int sy = 0; known && sy < 16; sy++) {
+                if (f.targetStack != null && type == OreTypes.NONE) {
+                    // not an ore, the map hasn't counted it
+                    density[sy] = -1;
+                }
+                else if (density[sy] >= 0) {
+                    density[sy] += map.getDensity(sy, type);
+                }
+            }
+        }
+    }
+
+    double getEstimate()
+    {
+        return estimate;
+    }
+
+    // walk a column's tile entities rather than blockCost blocks of it?
+    boolean planColumn(int tileEntities, long blockCost)
+    {
+        // one for each tile entity, in the cube or not, and one for the map
+        int cost = tileEntities + 1;
+        estimate = cost <= blockCost ? cost : blockCost;
+        return cost <= blockCost;
+    }
+
+    // how to look at the part of section sy within the cube, volume blocks
+    Strategy planSection(int sy, int volume, boolean cacheable, boolean cached, boolean canSample)
+    {
+        double d = density[sy];
+
+        if (cached) {
+            estimate = (d < 0 ? 0 : d * SECTION_BLOCKS) + 1;
+            return Strategy.CACHED;
+        }
+
+        Strategy best = Strategy.BLOCKS;
+        double bestScore = volume;
+        estimate = volume;
+
+        if (cacheable && Constants.SECTION_CACHE_SECTIONS > 0
+                && (double) SECTION_BLOCKS / CACHE_SHARERS < bestScore) {
+            best      = Strategy.WHOLE_SECTION;
+            bestScore = (double) SECTION_BLOCKS / CACHE_SHARERS;
+            estimate  = SECTION_BLOCKS;
+        }
+
+        if (canSample) {
+            int samples = Math.max((volume + STRATUM_BLOCKS - 1) / STRATUM_BLOCKS,
+                    (int) Math.round(Constants.SAMPLE_FRACTION * volume));
+            double p = d < 0
+                    ? UNKNOWN_ESCALATION
+                    : poissonAbove(samples * d, (int) Math.floor(samples * Constants.SAMPLE_ESCALATE_DENSITY));
+            // an escalated section is then scanned whichever of the other ways is cheaper
+            double sampled = samples + p * bestScore;
+            if (sampled < bestScore) {
+                best      = Strategy.SAMPLED;
+                bestScore = sampled;
+                estimate  = samples + p * estimate;
+            }
+        }
+        return best;
+    }
+
+    // chance of more than k matches where lambda are expected, taking the
+    // ores as scattered at random
+    private static double poissonAbove(double lambda, int k)
+    {
+        double term = Math.exp(-lambda), sum = term;
+        for (int i = 1; i <= k; i++) {
+            term *= lambda / i;
+            sum  += term;
+        }
+        return Math.max(0, 1 - sum);
+    }
+
+    static void record(Strategy strategy, double estimatedCost, int actualCost)
+    {
+        planned[strategy.ordinal()]++;
+        estimated[strategy.ordinal()] += Math.round(estimatedCost);
+        actual[strategy.ordinal()]    += actualCost;
+    }
+
+    // sections (columns for TILE_ENTITIES) this strategy was picked for
+    public static long getPlanned(Strategy strategy)
+    {
+        return planned[strategy.ordinal()];
+    }
+
+    public static long getEstimatedCost(Strategy strategy)
+    {
+        return estimated[strategy.ordinal()];
+    }
+
+    public static long getActualCost(Strategy strategy)
+    {
+        return actual[strategy.ordinal()];
+    }
+
+}
@@ -0,0 +1,432 @@
+package org.argon.roderick.minecraft.oredowsing.scan;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.argon.roderick.minecraft.oredowsing.lib.Constants;
+import org.argon.roderick.minecraft.oredowsing.lib.cofhDummy;
+import org.argon.roderick.minecraft.oredowsing.network.MessageHighlightBlocks;
+import org.argon.roderick.minecraft.oredowsing.network.MessageVeinLabels;
+import org.argon.roderick.minecraft.oredowsing.network.PacketHandler;
+
+import net.minecraft.network.play.server.S02PacketChat;
+import net.minecraft.util.ChatComponentText;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.PlayerEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+
+// Runs scans on the server a slice at a time.  Each server tick gets a
+// fixed budget of blocks and time, which is handed out round-robin between
+// the players that have scans waiting, so one player firing rods as fast as
+// possible can't starve everybody else (or the tick).
+
+public final class ScanScheduler {
+
+    public enum Admission { ACCEPTED, RATE_LIMITED, QUEUE_FULL }
+
+    private static class PlayerQueue {
+        final UUID id;
+        final ArrayDeque<ScanJob> jobs = new ArrayDeque<ScanJob>();
+        long lastAcceptedTick = Long.MIN_VALUE / 2;
+
+        PlayerQueue(UUID parId)
+        {
+            id = parId;
+        }
+    }
+
+    private static final HashMap<UUID, PlayerQueue> playerQueues = new HashMap<UUID, PlayerQueue>();
+
+    // queues with at least one job, in the order they'll next be served
+    private static final ArrayDeque<PlayerQueue> ready = new ArrayDeque<PlayerQueue>();
+
+    private static long tick;
+
+    // a section is never split, so a tick can go over its block budget by
+    // part of one; what it went over by comes off the next tick's
+    private static int overdraft;
+
+    // statistics
+    private static int    queueDepth;
+    private static long   jobsAccepted;
+    private static long   jobsRejected;
+    private static long   jobsStarted;
+    private static long   jobsCompleted;
+    private static long   totalWaitTicks;
+    private static long   maxWaitTicks;
+    private static long   totalLatencyTicks;
+    private static long   chunksSkipped;
+    private static long   partialScans;
+    private static long   sectionsPruned;
+    private static int    lastTickBlocks;
+    private static double lastTickMillis;
+
+    public static Admission submit(ScanJob job)
+    {
+        PlayerQueue q = queueFor(job.ownerId);
+        if (tick - q.lastAcceptedTick < Constants.SCAN_COOLDOWN_TICKS) {
+            jobsRejected++;
+            return Admission.RATE_LIMITED;
+        }
+        if (q.jobs.size() >= Constants.SCAN_MAX_QUEUED_PER_PLAYER) {
+            jobsRejected++;
+            return Admission.QUEUE_FULL;
+        }
+
+        job.submitTick     = tick;
+        q.lastAcceptedTick = tick;
+        if (q.jobs.isEmpty()) {
+            ready.addLast(q);
+        }
+        q.jobs.addLast(job);
+        queueDepth++;
+        jobsAccepted++;
+        return Admission.ACCEPTED;
+    }
+
+    // A use which is answered at once rather than queued, e.g. a long range
+    // rod's, still costs the server something, so it's held to the same
+    // per-player cooldown as a scan and counts towards it.
+    public static Admission admitImmediate(UUID id)
+    {
+        PlayerQueue q = queueFor(id);
+        if (tick - q.lastAcceptedTick < Constants.SCAN_COOLDOWN_TICKS) {
+            jobsRejected++;
+            return Admission.RATE_LIMITED;
+        }
+        q.lastAcceptedTick = tick;
+        return Admission.ACCEPTED;
+    }
+
+    private static PlayerQueue queueFor(UUID id)
+    {
+        PlayerQueue q = playerQueues.get(id);
+        if (q == null) {
+            q = new PlayerQueue(id);
+            playerQueues.put(id, q);
+        }
+        return q;
+    }
+
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event)
+    {
+        if (event.phase != TickEvent.Phase.END) {
+            return;
+        }
+        tick++;
+        if (ready.isEmpty()) {
+            overdraft      = 0;
+            lastTickBlocks = 0;
+            lastTickMillis = 0;
+            return;
+        }
+
+        long start    = System.nanoTime();
+        long deadline = start + (long) (Constants.SCAN_MILLIS_PER_TICK * 1000000);
+        int  allowed  = Constants.SCAN_BLOCKS_PER_TICK - overdraft;
+        int  budget   = allowed;
+
+        while (budget > 0 && !ready.isEmpty() && System.nanoTime() < deadline) {
+            PlayerQueue q   = ready.pollFirst();
+            ScanJob     job = q.jobs.peekFirst();
+
+            if (!isStillWanted(job)) {
+                q.jobs.pollFirst();
+                queueDepth--;
+            }
+            else {
+                if (job.startTick < 0) {
+                    long wait = tick - job.submitTick;
+                    job.startTick   = tick;
+                    jobsStarted++;
+                    totalWaitTicks += wait;
+                    maxWaitTicks    = Math.max(maxWaitTicks, wait);
+                    if (job.player != null) {
+                        ScanListeners.fireStart(job);
+                    }
+                }
+                budget -= job.step(Math.min(budget, Constants.SCAN_SLICE_BLOCKS));
+                if (job.isDone()) {
+                    q.jobs.pollFirst();
+                    queueDepth--;
+                    finish(job);
+                }
+            }
+
+            if (!q.jobs.isEmpty()) {
+                ready.addLast(q);
+            }
+        }
+
+        overdraft      = Math.max(0, -budget);
+        lastTickBlocks = allowed - budget;
+        lastTickMillis = (System.nanoTime() - start) / 1000000D;
+    }
+
+    @SubscribeEvent
+    public void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent event)
+    {
+        forget(event.player.getUniqueID());
+    }
+
+    // drop everything queued for one owner
+    public static void forget(UUID id)
+    {
+        PlayerQueue q = playerQueues.remove(id);
+        if (q != null) {
+            queueDepth -= q.jobs.size();
+            q.jobs.clear();
+            ready.remove(q);
+        }
+    }
+
+    public static void clear()
+    {
+        playerQueues.clear();
+        ready.clear();
+        overdraft         = 0;
+        queueDepth        = 0;
+        jobsAccepted      = 0;
+        jobsRejected      = 0;
+        jobsStarted       = 0;
+        jobsCompleted     = 0;
+        totalWaitTicks    = 0;
+        maxWaitTicks      = 0;
+        totalLatencyTicks = 0;
+        chunksSkipped     = 0;
+        partialScans      = 0;
+        sectionsPruned    = 0;
+        lastTickBlocks    = 0;
+        lastTickMillis    = 0;
+    }
+
+    private static boolean isStillWanted(ScanJob job)
+    {
+        if (job.player == null) {
+            return true; // simulated
+        }
+        return !job.player.isDead
+                && job.player.worldObj == job.world
+                && job.player.playerNetServerHandler != null;
+    }
+
+    private static void finish(ScanJob job)
+    {
+        jobsCompleted++;
+        totalLatencyTicks += tick - job.submitTick;
+        job.finished(tick - job.submitTick);
+        sectionsPruned += job.sectionsPruned;
+        if (job.chunksSkipped > 0) {
+            chunksSkipped += job.chunksSkipped;
+            partialScans++;
+        }
+        if (job.player == null) {
+            return;
+        }
+
+        if (job.chunksSkipped > 0) {
+            job.player.addChatMessage(new ChatComponentText(String.format(
+                    cofhDummy.localize("text.oredowsing.scan.partial"),
+                    (int) Math.floor(100 * job.getCoverage()))));
+        }
+
+        int dimension = job.world.provider.getDimensionId();
+        for (int f = 0; f < job.filters.length; f++) {
+            sendHighlights(job, dimension, f);
+        }
+
+        reportVeins(job, dimension);
+        if (job.estimates != null) {
+            reportSampling(job);
+        }
+        ScanListeners.fireComplete(job, tick - job.submitTick);
+    }
+
+    // the hits which matched filter f, with that filter's colouring
+    private static void sendHighlights(ScanJob job, int dimension, int f)
+    {
+        ScanJob.Filter filter = job.filters[f];
+        int n = job.hits.size();
+        long[] positions = null;
+        int len = 0;
+        for (int i = 0; i < n; i++) {
+            if ((job.hitFilters.get(i) & 1 << f) == 0) {
+                continue;
+            }
+            if (positions == null) {
+                // the message keeps the array until it's encoded, so a new one each time
+                positions = new long[Math.min(MessageHighlightBlocks.MAX_POSITIONS, n - i)];
+            }
+            positions[len++] = job.hits.get(i);
+            if (len == positions.length) {
+                sendHighlights(job, dimension, filter, positions);
+                positions = null;
+                len = 0;
+            }
+        }
+        if (len > 0) {
+            sendHighlights(job, dimension, filter, Arrays.copyOf(positions, len));
+        }
+    }
+
+    private static void sendHighlights(ScanJob job, int dimension, ScanJob.Filter filter, long[] positions)
+    {
+        PacketHandler.INSTANCE.sendTo(
+                new MessageHighlightBlocks(dimension, Constants.RENDER_DURATION, filter.showOreColor,
+                        filter.targetStack != null, positions),
+                job.player);
+    }
+
+    // S02PacketChat's type for the line above the hotbar
+    private static final byte ACTION_BAR = 2;
+
+    private static void reportVeins(ScanJob job, int dimension)
+    {
+        VeinFinder.Result veins = job.veins;
+        int n = Math.min(veins.getNumVeins(), MessageVeinLabels.MAX_LABELS);
+        if (n == 0) {
+            return;
+        }
+
+        long[] positions = new long[n];
+        int[]  sizes     = new int[n];
+        // ore type -> { number of veins, largest }
+        LinkedHashMap<Integer, int[]> byType = new LinkedHashMap<Integer, int[]>();
+        for (int i = 0; i < veins.getNumVeins(); i++) {
+            if (i < n) {
+                positions[i] = VeinFinder.posOf(job, veins.tops.get(i)).toLong();
+                sizes[i]     = veins.sizes.get(i);
+            }
+            int[] summary = byType.get(veins.oreTypes.get(i));
+            if (summary == null) {
+                summary = new int[2];
+                byType.put(veins.oreTypes.get(i), summary);
+            }
+            summary[0]++;
+            summary[1] = Math.max(summary[1], veins.sizes.get(i));
+        }
+        PacketHandler.INSTANCE.sendTo(
+                new MessageVeinLabels(dimension, Constants.RENDER_DURATION, positions, sizes),
+                job.player);
+
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Integer, int[]> e : byType.entrySet()) {
+            String name = e.getKey() == OreTypes.NONE
+                    ? targetName(job)
+                    : OreTypes.getShortName(e.getKey());
+            sb.append(sb.length() == 0 ? "" : ", ").append(String.format(
+                    cofhDummy.localize("text.oredowsing.veins.entry"), name, e.getValue()[0], e.getValue()[1]));
+        }
+        // above the hotbar rather than in chat, where a line from every scan
+        // would soon push everything else out; the next scan's replaces it
+        job.player.playerNetServerHandler.sendPacket(new S02PacketChat(new ChatComponentText(String.format(
+                cofhDummy.localize(veins.truncated ? "text.oredowsing.veins.truncated" : "text.oredowsing.veins"),
+                sb.toString())), ACTION_BAR));
+    }
+
+    // what non-ore veins are called: the first target which isn't an ore
+    private static String targetName(ScanJob job)
+    {
+        for (ScanJob.Filter filter : job.filters) {
+            if (filter.targetStack != null && OreTypes.typeOf(filter.targetStack) == OreTypes.NONE) {
+                return filter.targetStack.getDisplayName();
+            }
+        }
+        return job.targetStack != null ? job.targetStack.getDisplayName() : "?";
+    }
+
+    private static void reportSampling(ScanJob job)
+    {
+        if (job.estimates.isEmpty()) {
+            return;
+        }
+        int escalated = 0;
+        double unseen = 0, confidence = 0;
+        for (SampleEstimate estimate : job.estimates) {
+            if (estimate.escalated) {
+                escalated++;
+            }
+            else {
+                unseen += estimate.getEstimatedUnsampled();
+            }
+            confidence += estimate.confidence;
+        }
+        job.player.addChatMessage(new ChatComponentText(String.format(
+                cofhDummy.localize("text.oredowsing.scan.sampled"),
+                job.estimates.size(), escalated, Math.round(unseen),
+                Math.round(100 * confidence / job.estimates.size()))));
+    }
+
+    // statistics accessors, for the stats command
+
+    public static int getQueueDepth()
+    {
+        return queueDepth;
+    }
+
+    public static int getPlayersWaiting()
+    {
+        return ready.size();
+    }
+
+    public static long getJobsAccepted()
+    {
+        return jobsAccepted;
+    }
+
+    public static long getJobsRejected()
+    {
+        return jobsRejected;
+    }
+
+    public static long getJobsCompleted()
+    {
+        return jobsCompleted;
+    }
+
+    public static double getAverageWaitTicks()
+    {
+        return jobsStarted == 0 ? 0 : (double) totalWaitTicks / jobsStarted;
+    }
+
+    public static long getMaxWaitTicks()
+    {
+        return maxWaitTicks;
+    }
+
+    public static double getAverageLatencyTicks()
+    {
+        return jobsCompleted == 0 ? 0 : (double) totalLatencyTicks / jobsCompleted;
+    }
+
+    public static long getChunksSkipped()
+    {
+        return chunksSkipped;
+    }
+
+    public static long getPartialScans()
+    {
+        return partialScans;
+    }
+
+    public static long getSectionsPruned()
+    {
+        return sectionsPruned;
+    }
+
+    public static int getLastTickBlocks()
+    {
+        return lastTickBlocks;
+    }
+
+    public static double getLastTickMillis()
+    {
+        return lastTickMillis;
+    }
+
+}
@@ -0,0 +1,317 @@
+package org.argon.roderick.minecraft.oredowsing.scan;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.argon.roderick.minecraft.oredowsing.lib.Constants;
+
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.world.World;
+import net.minecraftforge.event.terraingen.PopulateChunkEvent;
+import net.minecraftforge.event.world.BlockEvent;
+import net.minecraftforge.event.world.ChunkEvent;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.fml.common.eventhandler.EventPriority;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+
+// Results of whole-section scans, shared between every player's scans so
+// a group mining together doesn't scan the same sections over and over.
+// An entry is one section and holds the hits (as indexes within the
+// section) for each filter it has been scanned with.  Any block change in
+// a section drops its entry, each filter's hits also expire
+// section_cache_max_age_ticks after they were scanned to bound what's
+// missed by changes which don't fire an event, and the least recently
+// used entries are evicted beyond section_cache_sections.
+//
+// Sections are scanned start to finish within one call on the server
+// thread, so there's never a scan of a section in flight: the second job
+// to want one always finds the first job's finished result here.
+//
+// WarmupCrawler fills entries ahead of the scans too.  Those are counted
+// until a scan uses them, so the crawl can keep to its share of the cache
+// rather than pushing out what scans put there.
+
+public class SectionCache {
+
+    public static final SectionCache SHARED = new SectionCache();
+
+    public static final long ANY_ORE = -1;
+
+    private static class Hits {
+        final short[] indexes;
+        final long    createdTick;
+
+        Hits(short[] parIndexes, long parCreatedTick)
+        {
+            indexes     = parIndexes;
+            createdTick = parCreatedTick;
+        }
+    }
+
+    private static class Entry {
+        final LinkedHashMap<Long, Hits> byFilter = new LinkedHashMap<Long, Hits>();
+        boolean warmed; // put by the crawl and not used by a scan yet
+    }
+
+    // least recently used first; index holds the same entries, to look at
+    // one without it counting as a use
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<Long, Entry>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest)
+        {
+            if (size() > Constants.SECTION_CACHE_SECTIONS) {
+                evictions++;
+                forget(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
+    private final HashMap<Long, Entry> index = new HashMap<Long, Entry>(256);
+    private int numWarmed;
+
+    // statistics
+    private long lookups;
+    private long hits;
+    private long evictions;
+    private long invalidations;
+
+    // dimension, chunk column and section in one long
+    static long sectionKey(int dimension, int chunkX, int sy, int chunkZ)
+    {
+        return ((long) (dimension & 0xFFFF) << 48)
+                | ((long) (chunkX & 0x3FFFFF) << 26)
+                | ((long) (chunkZ & 0x3FFFFF) << 4)
+                | (sy & 0xF);
+    }
+
+    // what a scan for targetStack matches, as ScanJob.matches sees it
+    public static long filterKey(ItemStack targetStack)
+    {
+        return targetStack == null
+                ? ANY_ORE
+                : ((long) Item.getIdFromItem(targetStack.getItem()) << 32) | (targetStack.getItemDamage() & 0xFFFFFFFFL);
+    }
+
+    // hits for one section and filter, null if they aren't known
+    public short[] get(World world, int chunkX, int sy, int chunkZ, long filter)
+    {
+        lookups++;
+        Long key = sectionKey(world.provider.getDimensionId(), chunkX, sy, chunkZ);
+        Entry entry = entries.get(key);
+        Hits found = entry == null ? null : entry.byFilter.get(filter);
+        if (found == null) {
+            return null;
+        }
+        if (world.getTotalWorldTime() - found.createdTick > Constants.SECTION_CACHE_MAX_AGE_TICKS) {
+            entry.byFilter.remove(filter);
+            if (entry.byFilter.isEmpty()) {
+                remove(key);
+            }
+            return null;
+        }
+        used(entry);
+        hits++;
+        return found.indexes;
+    }
+
+    // like get but without counting towards the statistics, expiring
+    // anything or making the entry any less likely to be evicted
+    public boolean contains(World world, int chunkX, int sy, int chunkZ, long filter)
+    {
+        Entry entry = index.get(sectionKey(world.provider.getDimensionId(), chunkX, sy, chunkZ));
+        Hits found = entry == null ? null : entry.byFilter.get(filter);
+        return found != null && world.getTotalWorldTime() - found.createdTick <= Constants.SECTION_CACHE_MAX_AGE_TICKS;
+    }
+
+    public void put(World world, int chunkX, int sy, int chunkZ, long filter, short[] sectionHits)
+    {
+        put(world, chunkX, sy, chunkZ, filter, sectionHits, false);
+    }
+
+    // put ahead of any scan wanting it, see getNumWarmed
+    public void putWarmed(World world, int chunkX, int sy, int chunkZ, long filter, short[] sectionHits)
+    {
+        put(world, chunkX, sy, chunkZ, filter, sectionHits, true);
+    }
+
+    private void put(World world, int chunkX, int sy, int chunkZ, long filter, short[] sectionHits, boolean warmed)
+    {
+        if (Constants.SECTION_CACHE_SECTIONS <= 0) {
+            return;
+        }
+        Long key = sectionKey(world.provider.getDimensionId(), chunkX, sy, chunkZ);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            entry.warmed = warmed;
+            if (warmed) {
+                numWarmed++;
+            }
+            index.put(key, entry);
+            entries.put(key, entry);
+        }
+        else if (!warmed) {
+            used(entry);
+        }
+        entry.byFilter.put(filter, new Hits(sectionHits, world.getTotalWorldTime()));
+    }
+
+    public void invalidateSection(World world, int chunkX, int sy, int chunkZ)
+    {
+        if (remove(sectionKey(world.provider.getDimensionId(), chunkX, sy, chunkZ))) {
+            invalidations++;
+        }
+    }
+
+    private boolean remove(Long key)
+    {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        forget(key, entry);
+        return true;
+    }
+
+    // entry has gone from entries, drop the rest of it
+    private void forget(Long key, Entry entry)
+    {
+        index.remove(key);
+        used(entry);
+    }
+
+    private void used(Entry entry)
+    {
+        if (entry.warmed) {
+            entry.warmed = false;
+            numWarmed--;
+        }
+    }
+
+    public void invalidateColumn(World world, int chunkX, int chunkZ)
+    {
+        for (int sy = 0; sy < 16; sy++) {
+            invalidateSection(world, chunkX, sy, chunkZ);
+        }
+    }
+
+    public void invalidateDimension(int dimension)
+    {
+        Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Entry> e = it.next();
+            if ((int) (e.getKey() >>> 48) == (dimension & 0xFFFF)) {
+                it.remove();
+                forget(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    public void clear()
+    {
+        entries.clear();
+        index.clear();
+        numWarmed = 0;
+    }
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    // entries put by the crawl which no scan has used yet
+    public int getNumWarmed()
+    {
+        return numWarmed;
+    }
+
+    public long getLookups()
+    {
+        return lookups;
+    }
+
+    public long getHits()
+    {
+        return hits;
+    }
+
+    public double getHitRate()
+    {
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public long getEvictions()
+    {
+        return evictions;
+    }
+
+    public long getInvalidations()
+    {
+        return invalidations;
+    }
+
+    // keeps SHARED in step with the worlds
+
+    public static class Invalidator {
+
+        @SubscribeEvent(priority = EventPriority.LOWEST)
+        public void onBlockBreak(BlockEvent.BreakEvent event)
+        {
+            invalidate(event.world, event.pos.getX(), event.pos.getY(), event.pos.getZ());
+        }
+
+        @SubscribeEvent(priority = EventPriority.LOWEST)
+        public void onBlockPlace(BlockEvent.PlaceEvent event)
+        {
+            invalidate(event.world, event.pos.getX(), event.pos.getY(), event.pos.getZ());
+        }
+
+        // fired for most other changes: pistons, fluids, explosions, machines
+        @SubscribeEvent
+        public void onNeighborNotify(BlockEvent.NeighborNotifyEvent event)
+        {
+            invalidate(event.world, event.pos.getX(), event.pos.getY(), event.pos.getZ());
+        }
+
+        // population writes into the chunks to the south east as well
+        @SubscribeEvent
+        public void onPopulateChunk(PopulateChunkEvent.Post event)
+        {
+            if (!event.world.isRemote) {
+                for (int dx = 0; dx <= 1; dx++) {
+                    for (int dz = 0; dz <= 1; dz++) {
+                        SHARED.invalidateColumn(event.world, event.chunkX + dx, event.chunkZ + dz);
+                    }
+                }
+            }
+        }
+
+        @SubscribeEvent
+        public void onChunkLoad(ChunkEvent.Load event)
+        {
+            if (!event.world.isRemote) {
+                SHARED.invalidateColumn(event.world, event.getChunk().xPosition, event.getChunk().zPosition);
+            }
+        }
+
+        @SubscribeEvent
+        public void onWorldUnload(WorldEvent.Unload event)
+        {
+            if (!event.world.isRemote) {
+                SHARED.invalidateDimension(event.world.provider.getDimensionId());
+            }
+        }
+
+        private static void invalidate(World world, int x, int y, int z)
+        {
+            if (!world.isRemote && y >= 0 && y <= 255) {
+                SHARED.invalidateSection(world, x >> 4, y >> 4, z >> 4);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,226 @@
+package org.argon.roderick.minecraft.oredowsing.scan;
+
+import org.argon.roderick.minecraft.oredowsing.lib.Constants;
+import org.argon.roderick.minecraft.oredowsing.lib.IntArrayList;
+import org.argon.roderick.minecraft.oredowsing.lib.IntHashSet;
+import org.argon.roderick.minecraft.oredowsing.lib.LongArrayQueue;
+import org.argon.roderick.minecraft.oredowsing.lib.PackedPos;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.BlockPos;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+// Groups a finished scan's hits into veins: connected runs of the same ore
+// type, or of the same block where it isn't an ore.  Works on indexes into
+// the scan box, with sets of the hits (filled in by the scan) and of the
+// visited blocks and a primitive queue, so nothing is allocated per block
+// and what's held grows with the hits rather than with the box.  The
+// total flood fill work is capped (vein_max_blocks) so a huge blob of some
+// modded ore can't run away with the scan; whatever is left over when the
+// cap is hit isn't grouped.  The fill is done in slices like the scan
+// itself, see step.
+
+public class VeinFinder {
+
+    private static final int[][] FACES = {
+        { 1, 0, 0 }, { -1, 0, 0 }, { 0, 1, 0 }, { 0, -1, 0 }, { 0, 0, 1 }, { 0, 0, -1 },
+    };
+    private static final int[][] ALL_NEIGHBOURS = new int[26][];
+    static {
+        int n = 0;
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dz = -1; dz <= 1; dz++) {
+                    if (dx != 0 || dy != 0 || dz != 0) {
+                        ALL_NEIGHBOURS[n++] = new int[] { dx, dy, dz };
+                    }
+                }
+            }
+        }
+    }
+
+    public static class Result {
+        // one entry per vein
+        public final IntArrayList oreTypes = new IntArrayList(); // OreTypes.NONE for a non-ore target
+        public final IntArrayList sizes    = new IntArrayList();
+        public final IntArrayList tops     = new IntArrayList(); // box index of the vein's highest block
+        public boolean truncated;
+        public int     work;
+
+        public int getNumVeins()
+        {
+            return sizes.size();
+        }
+    }
+
+    private final ScanJob job;
+    private final IntHashSet hitSet;
+    private final int[] starts; // each hit's index, in the order they were found
+    private final boolean singleType;
+    private final int minX, minY, minZ;
+    private final int sizeX, sizeY, sizeZ;
+
+    private final Result result = new Result();
+    private final int[][] neighbours = Constants.VEIN_CONNECTIVITY == 26 ? ALL_NEIGHBOURS : FACES;
+    private final IntHashSet visited;
+    private final LongArrayQueue queue = new LongArrayQueue();
+
+    // where in starts the search for the next vein's first block carries
+    // on from, and the vein being filled, if any
+    private int     nextStart;
+    private boolean inVein;
+    private int     kind, size, top; // kind as kindAt
+    private boolean finished;
+
+    private Chunk lastChunk;
+
+    // parHitSet holds the index of each of the job's hits, null if it has none
+    VeinFinder(ScanJob parJob, IntHashSet parHitSet)
+    {
+        job        = parJob;
+        hitSet     = parHitSet;
+        singleType = job.filters.length == 1 && job.targetStack != null;
+        minX  = job.minX;
+        minY  = job.minY;
+        minZ  = job.minZ;
+        sizeX = job.maxX - job.minX + 1;
+        sizeY = job.maxY - job.minY + 1;
+        sizeZ = job.maxZ - job.minZ + 1;
+        starts = new int[job.hits.size()];
+        for (int i = 0; i < starts.length; i++) {
+            long pos = job.hits.get(i);
+            starts[i] = indexOf(job, PackedPos.x(pos), PackedPos.y(pos), PackedPos.z(pos));
+        }
+        visited = new IntHashSet(Math.min(starts.length, Constants.VEIN_MAX_BLOCKS));
+    }
+
+    Result getResult()
+    {
+        return result;
+    }
+
+    // Fill for up to about maxWork blocks (at least one), returns the work
+    // done.  isFinished once every hit is in a vein or the cap was hit.
+
+    int step(int maxWork)
+    {
+        int work = 0;
+
+        while (!finished && work < Math.max(1, maxWork)) {
+            if (!inVein) {
+                while (nextStart < starts.length && visited.contains(starts[nextStart])) {
+                    nextStart++;
+                }
+                if (nextStart == starts.length) {
+                    finished = true;
+                    break;
+                }
+                if (result.work >= Constants.VEIN_MAX_BLOCKS) {
+                    result.truncated = true;
+                    finished = true;
+                    break;
+                }
+                int start = starts[nextStart++];
+                kind   = kindAt(start);
+                size   = 0;
+                top    = start;
+                inVein = true;
+                visited.add(start);
+                queue.clear();
+                queue.add(start);
+            }
+
+            while (!queue.isEmpty() && result.work < Constants.VEIN_MAX_BLOCKS && work < Math.max(1, maxWork)) {
+                int index = (int) queue.poll();
+                int x = index % sizeX;
+                int z = index / sizeX % sizeZ;
+                int y = index / sizeX / sizeZ;
+                size++;
+                work++;
+                result.work++;
+                if (y > top / sizeX / sizeZ) {
+                    top = index;
+                }
+
+                for (int i = 0; i < neighbours.length; i++) {
+                    int nx = x + neighbours[i][0], ny = y + neighbours[i][1], nz = z + neighbours[i][2];
+                    if (nx < 0 || ny < 0 || nz < 0 || nx >= sizeX || ny >= sizeY || nz >= sizeZ) {
+                        continue;
+                    }
+                    int nindex = (ny * sizeZ + nz) * sizeX + nx;
+                    if (hitSet.contains(nindex) && !visited.contains(nindex) && kindAt(nindex) == kind) {
+                        visited.add(nindex);
+                        queue.add(nindex);
+                    }
+                }
+            }
+            if (queue.isEmpty() || result.work >= Constants.VEIN_MAX_BLOCKS) {
+                // this vein is done, or as done as it's going to get
+                if (!queue.isEmpty()) {
+                    result.truncated = true;
+                }
+                result.oreTypes.add(kind >= 0 ? kind : OreTypes.NONE);
+                result.sizes.add(size);
+                result.tops.add(top);
+                inVein = false;
+            }
+        }
+        return work;
+    }
+
+    boolean isFinished()
+    {
+        return finished;
+    }
+
+    public static int indexOf(ScanJob job, int x, int y, int z)
+    {
+        int sizeX = job.maxX - job.minX + 1;
+        int sizeZ = job.maxZ - job.minZ + 1;
+        return ((y - job.minY) * sizeZ + (z - job.minZ)) * sizeX + (x - job.minX);
+    }
+
+    public static BlockPos posOf(ScanJob job, int index)
+    {
+        int sizeX = job.maxX - job.minX + 1;
+        int sizeZ = job.maxZ - job.minZ + 1;
+        return new BlockPos(job.minX + index % sizeX,
+                            job.minY + index / sizeX / sizeZ,
+                            job.minZ + index / sizeX % sizeZ);
+    }
+
+    // What joins blocks into one vein: the ore type, or for anything else
+    // the block as the filters compare it (block and dropped damage),
+    // encoded below OreTypes.NONE so two different non-ore targets never
+    // run together.  A single targeted filter only matches one thing.
+    private int kindAt(int index)
+    {
+        if (singleType) {
+            return OreTypes.NONE;
+        }
+        int x = minX + index % sizeX;
+        int z = minZ + index / sizeX % sizeZ;
+        int y = minY + index / sizeX / sizeZ;
+        if (lastChunk == null || lastChunk.xPosition != x >> 4 || lastChunk.zPosition != z >> 4) {
+            lastChunk = job.getChunk(x >> 4, z >> 4);
+            if (lastChunk == null) {
+                // unloaded since it was scanned
+                return OreTypes.NONE;
+            }
+        }
+        ExtendedBlockStorage storage = lastChunk.getBlockStorageArray()[y >> 4];
+        if (storage == null) {
+            return OreTypes.NONE;
+        }
+        IBlockState bstate = storage.get(x & 15, y & 15, z & 15);
+        int type = OreTypes.typeOf(bstate);
+        if (type != OreTypes.NONE) {
+            return type;
+        }
+        Block block = bstate.getBlock();
+        return -2 - (Block.getIdFromBlock(block) << 16 | (block.damageDropped(bstate) & 0xFFFF));
+    }
+
+}
@@ -0,0 +1,520 @@
+package org.argon.roderick.minecraft.oredowsing.scan;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.argon.roderick.minecraft.oredowsing.items.DowsingRod;
+import org.argon.roderick.minecraft.oredowsing.lib.Constants;
+
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import net.minecraft.world.chunk.storage.RegionFileCache;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.fml.common.eventhandler.EventPriority;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+
+// Fills in the ore indices ahead of the scans which will want them, with
+// whatever the server has to spare at the end of a tick.  Around each
+// player it counts loaded chunks into the dimension's OreDensityMap, and
+// around those holding a rod it also puts the any-ore results of their
+// sections into SectionCache.SHARED, up to crawl_cache_fraction of the
+// cache so the crawl never pushes out what scans put there; the optional
+// world pass (crawl_whole_world, or /oredowsing crawl world) goes through
+// every chunk saved in the overworld's region files and counts those which
+// haven't been, from their saved sections without loading them.  It stops once
+// the density map holds density_unloaded_columns unloaded chunks, since
+// beyond that it would only be counting chunks to be forgotten again.
+//
+// Work is taken crawl_chunks_per_tick chunks and crawl_millis_per_tick at
+// a time, and only when the tick so far has stayed under
+// crawl_max_tick_millis; a tick over it pauses the crawl, for twice as long
+// each time it happens in a row.
+
+public class WarmupCrawler {
+
+    private static final int REFRESH_TICKS   = 20;  // how often the chunks near players are looked over
+    private static final int MIN_PAUSE_TICKS = 20;
+    private static final int MAX_PAUSE_TICKS = 1200;
+    private static final int REGION_CHUNKS   = 32 * 32;
+
+    // chunks near players still to be done, per dimension, and whether to
+    // warm the cache with them as well as count them
+    private static final HashMap<Integer, LinkedHashMap<Long, Boolean>> nearPlayers = new HashMap<Integer, LinkedHashMap<Long, Boolean>>();
+
+    // world pass
+    private static WorldServer worldPassWorld;
+    private static File        regionDir;
+    private static File[]      regionFiles;
+    private static int         regionIdx;
+    private static int         regionChunk;  // index within the current region
+    private static int         regionChunkX; // ... and where the region starts
+    private static int         regionChunkZ;
+    private static boolean     worldPassFull; // the last one stopped at density_unloaded_columns
+
+    private static short[] sectionBuffer;
+
+    private static long tick;
+    private static long tickStart;
+    private static long pausedUntil;
+    private static int  pauseTicks = MIN_PAUSE_TICKS;
+
+    // statistics
+    private static long chunksCounted;
+    private static long sectionsWarmed;
+    private static long worldChunksRead;
+    private static long pauses;
+
+    public static boolean isPaused()
+    {
+        return tick < pausedUntil;
+    }
+
+    public static int getNumQueued()
+    {
+        int n = 0;
+        for (LinkedHashMap<Long, Boolean> queue : nearPlayers.values()) {
+            n += queue.size();
+        }
+        return n;
+    }
+
+    public static boolean isWorldPassRunning()
+    {
+        return regionFiles != null;
+    }
+
+    public static boolean isWorldPassFull()
+    {
+        return worldPassFull;
+    }
+
+    public static int getRegionsDone()
+    {
+        // regionIdx is past the one being crawled
+        return regionFiles == null ? 0 : regionChunk < REGION_CHUNKS ? regionIdx - 1 : regionIdx;
+    }
+
+    public static int getRegionsTotal()
+    {
+        return regionFiles == null ? 0 : regionFiles.length;
+    }
+
+    public static long getChunksCounted()
+    {
+        return chunksCounted;
+    }
+
+    public static long getSectionsWarmed()
+    {
+        return sectionsWarmed;
+    }
+
+    public static long getWorldChunksRead()
+    {
+        return worldChunksRead;
+    }
+
+    public static long getPauses()
+    {
+        return pauses;
+    }
+
+    // false if the world has no region files to go through
+    public static boolean startWorldPass(WorldServer world)
+    {
+        File dir = new File(world.getChunkSaveLocation(), "region");
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File parDir, String name)
+            {
+                return name.startsWith("r.") && name.endsWith(".mca");
+            }
+        });
+        if (files == null || files.length == 0) {
+            return false;
+        }
+        Arrays.sort(files);
+        worldPassWorld = world;
+        worldPassFull  = false;
+        regionDir      = world.getChunkSaveLocation();
+        regionFiles    = files;
+        regionIdx      = 0;
+        regionChunk    = REGION_CHUNKS; // start of the first region is parsed on the first step
+        return true;
+    }
+
+    public static void stopWorldPass()
+    {
+        worldPassWorld = null;
+        regionDir      = null;
+        regionFiles    = null;
+    }
+
+    // the server is stopping
+    public static void clear()
+    {
+        stopWorldPass();
+        nearPlayers.clear();
+        pausedUntil = 0;
+        pauseTicks  = MIN_PAUSE_TICKS;
+    }
+
+    public static class TickHandler {
+
+        @SubscribeEvent(priority = EventPriority.HIGHEST)
+        public void onServerTickStart(TickEvent.ServerTickEvent event)
+        {
+            if (event.phase == TickEvent.Phase.START) {
+                tickStart = System.nanoTime();
+            }
+        }
+
+        // lowest so everything else in the tick has had its turn first
+        @SubscribeEvent(priority = EventPriority.LOWEST)
+        public void onServerTickEnd(TickEvent.ServerTickEvent event)
+        {
+            if (event.phase == TickEvent.Phase.END && Constants.CRAWL_ENABLED && tickStart != 0) {
+                crawl();
+            }
+        }
+
+        @SubscribeEvent
+        public void onWorldLoad(WorldEvent.Load event)
+        {
+            if (Constants.CRAWL_WHOLE_WORLD && !event.world.isRemote
+                    && event.world.provider.getDimensionId() == 0 && !isWorldPassRunning()) {
+                startWorldPass((WorldServer) event.world);
+            }
+        }
+
+        @SubscribeEvent
+        public void onWorldUnload(WorldEvent.Unload event)
+        {
+            if (!event.world.isRemote) {
+                nearPlayers.remove(event.world.provider.getDimensionId());
+                if (event.world == worldPassWorld) {
+                    stopWorldPass();
+                }
+            }
+        }
+    }
+
+    private static void crawl()
+    {
+        tick++;
+        long now = System.nanoTime();
+        if ((now - tickStart) / 1.0e6D > Constants.CRAWL_MAX_TICK_MILLIS) {
+            if (!isPaused()) {
+                pauses++;
+                pausedUntil = tick + pauseTicks;
+                pauseTicks  = Math.min(MAX_PAUSE_TICKS, pauseTicks * 2);
+            }
+            return;
+        }
+        if (isPaused()) {
+            return;
+        }
+        pauseTicks = MIN_PAUSE_TICKS;
+
+        if (tick % REFRESH_TICKS == 0) {
+            refreshNearPlayers();
+        }
+
+        long deadline = now + (long) (Constants.CRAWL_MILLIS_PER_TICK * 1.0e6D);
+        int budget = Constants.CRAWL_CHUNKS_PER_TICK;
+        budget = crawlNearPlayers(budget, deadline);
+        if (budget > 0 && System.nanoTime() < deadline && worldPassWorld != null) {
+            crawlWorld(budget, deadline);
+        }
+    }
+
+    // queue the loaded chunks around each player which are missing
+    // something, nearest first, and drop those queued which no player is
+    // near any more, so the queues stay the size of the players' areas
+    private static void refreshNearPlayers()
+    {
+        int r = Constants.CRAWL_RADIUS_CHUNKS;
+        for (WorldServer world : MinecraftServer.getServer().worldServers) {
+            if (world.playerEntities.isEmpty()) {
+                nearPlayers.remove(world.provider.getDimensionId());
+                continue;
+            }
+            LinkedHashMap<Long, Boolean> queue = nearPlayers.get(world.provider.getDimensionId());
+            if (queue == null) {
+                queue = new LinkedHashMap<Long, Boolean>();
+                nearPlayers.put(world.provider.getDimensionId(), queue);
+            }
+            int   numPlayers = world.playerEntities.size();
+            int[] playerX    = new int[numPlayers];
+            int[] playerZ    = new int[numPlayers];
+            for (int i = 0; i < numPlayers; i++) {
+                EntityPlayer player = (EntityPlayer) world.playerEntities.get(i);
+                playerX[i] = (int) Math.floor(player.posX) >> 4;
+                playerZ[i] = (int) Math.floor(player.posZ) >> 4;
+            }
+
+            Iterator<Long> it = queue.keySet().iterator();
+            while (it.hasNext()) {
+                long key = it.next();
+                if (!isNear((int) key, (int) (key >>> 32), playerX, playerZ, r)) {
+                    it.remove();
+                }
+            }
+
+            for (int i = 0; i < numPlayers; i++) {
+                EntityPlayer player = (EntityPlayer) world.playerEntities.get(i);
+                ItemStack held = player.getHeldItem();
+                boolean warm = held != null && held.getItem() instanceof DowsingRod && canWarm();
+                int px = playerX[i], pz = playerZ[i];
+                for (int ring = 0; ring <= r; ring++) {
+                    for (int dx = -ring; dx <= ring; dx++) {
+                        for (int dz = -ring; dz <= ring; dz++) {
+                            if (Math.max(Math.abs(dx), Math.abs(dz)) != ring
+                                    || !needsWork(world, px + dx, pz + dz, warm)) {
+                                continue;
+                            }
+                            Long key = ChunkCoordIntPair.chunkXZ2Int(px + dx, pz + dz);
+                            Boolean queued = queue.get(key);
+                            if (queued == null || (warm && !queued)) {
+                                queue.put(key, warm);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // within r chunks of any of the players
+    private static boolean isNear(int chunkX, int chunkZ, int[] playerX, int[] playerZ, int r)
+    {
+        for (int i = 0; i < playerX.length; i++) {
+            if (Math.abs(chunkX - playerX[i]) <= r && Math.abs(chunkZ - playerZ[i]) <= r) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // is there room left for the crawl in the section cache?
+    private static boolean canWarm()
+    {
+        return SectionCache.SHARED.getNumWarmed()
+                < (int) (Math.max(0, Math.min(1, Constants.CRAWL_CACHE_FRACTION)) * Constants.SECTION_CACHE_SECTIONS);
+    }
+
+    private static boolean needsWork(World world, int chunkX, int chunkZ, boolean warm)
+    {
+        if (!world.getChunkProvider().chunkExists(chunkX, chunkZ)) {
+            return false;
+        }
+        OreDensityMap map = OreDensityTracker.getMap(world);
+        if (map == null || !map.isCounted(chunkX, chunkZ)) {
+            return true;
+        }
+        if (!warm) {
+            return false;
+        }
+        ExtendedBlockStorage[] storages = world.getChunkFromChunkCoords(chunkX, chunkZ).getBlockStorageArray();
+        for (int sy = 0; sy < storages.length; sy++) {
+            if (storages[sy] != null && !storages[sy].isEmpty()
+                    && !SectionCache.SHARED.contains(world, chunkX, sy, chunkZ, SectionCache.ANY_ORE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int crawlNearPlayers(int budget, long deadline)
+    {
+        for (WorldServer world : MinecraftServer.getServer().worldServers) {
+            LinkedHashMap<Long, Boolean> queue = nearPlayers.get(world.provider.getDimensionId());
+            if (queue == null) {
+                continue;
+            }
+            Iterator<Map.Entry<Long, Boolean>> it = queue.entrySet().iterator();
+            while (budget > 0 && it.hasNext() && System.nanoTime() < deadline) {
+                Map.Entry<Long, Boolean> e = it.next();
+                long key = e.getKey();
+                boolean warm = e.getValue();
+                it.remove();
+                int chunkX = (int) key, chunkZ = (int) (key >>> 32);
+                // it may have been unloaded since it was queued
+                if (world.getChunkProvider().chunkExists(chunkX, chunkZ)) {
+                    warmChunk(world, world.getChunkFromChunkCoords(chunkX, chunkZ), warm);
+                    budget--;
+                }
+            }
+        }
+        return budget;
+    }
+
+    private static void warmChunk(World world, Chunk chunk, boolean warm)
+    {
+        OreDensityMap map = OreDensityTracker.getMap(world);
+        if (map == null || !map.isCounted(chunk.xPosition, chunk.zPosition)) {
+            OreDensityTracker.countNow(world, chunk);
+            chunksCounted++;
+        }
+        if (!warm) {
+            return;
+        }
+        if (sectionBuffer == null) {
+            sectionBuffer = new short[4096];
+        }
+        ExtendedBlockStorage[] storages = chunk.getBlockStorageArray();
+        for (int sy = 0; sy < storages.length && canWarm(); sy++) {
+            if (storages[sy] != null && !storages[sy].isEmpty()
+                    && !SectionCache.SHARED.contains(world, chunk.xPosition, sy, chunk.zPosition, SectionCache.ANY_ORE)) {
+                SectionCache.SHARED.putWarmed(world, chunk.xPosition, sy, chunk.zPosition, SectionCache.ANY_ORE,
+                        ScanJob.scanWholeSection(null, storages[sy], sectionBuffer));
+                sectionsWarmed++;
+            }
+        }
+    }
+
+    // Counts saved chunks which haven't been, only into the density map:
+    // the section cache would have expired long before anyone scanned
+    // most of them.  Chunks which aren't loaded are read from the region
+    // file once and counted from the sections in it, without loading them,
+    // and those not yet populated are left alone (they have no ores yet).
+    private static void crawlWorld(int budget, long deadline)
+    {
+        WorldServer world = worldPassWorld;
+        while (budget > 0 && System.nanoTime() < deadline) {
+            if (regionChunk >= REGION_CHUNKS && !nextRegion()) {
+                stopWorldPass();
+                return;
+            }
+            if (OreDensityTracker.getNumUnloaded(world) >= Constants.DENSITY_UNLOADED_COLUMNS) {
+                worldPassFull = true;
+                stopWorldPass();
+                return;
+            }
+            int lx = regionChunk & 31, lz = regionChunk >> 5;
+            regionChunk++;
+            int chunkX = regionChunkX + lx, chunkZ = regionChunkZ + lz;
+
+            OreDensityMap map = OreDensityTracker.getMap(world);
+            if (map != null && map.isCounted(chunkX, chunkZ)) {
+                continue;
+            }
+            if (world.theChunkProviderServer.chunkExists(chunkX, chunkZ)) {
+                Chunk chunk = world.getChunkFromChunkCoords(chunkX, chunkZ);
+                if (!chunk.isTerrainPopulated()) {
+                    continue;
+                }
+                OreDensityTracker.countNow(world, chunk);
+            }
+            else {
+                NBTTagCompound level = readSaved(chunkX, chunkZ);
+                worldChunksRead++;
+                if (level == null || !level.getBoolean("TerrainPopulated")) {
+                    continue;
+                }
+                OreDensityTracker.countSaved(world, savedSections(world, chunkX, chunkZ, level));
+            }
+            chunksCounted++;
+            budget--;
+        }
+    }
+
+    // a saved chunk's Level tag, null if it isn't saved or can't be read
+    private static NBTTagCompound readSaved(int chunkX, int chunkZ)
+    {
+        DataInputStream in = RegionFileCache.getChunkInputStream(regionDir, chunkX, chunkZ);
+        if (in == null) {
+            return null;
+        }
+        try {
+            NBTTagCompound nbt = CompressedStreamTools.read(in);
+            return nbt.hasKey("Level", 10) ? nbt.getCompoundTag("Level") : null;
+        }
+        catch (IOException e) {
+            return null;
+        }
+        finally {
+            try {
+                in.close();
+            }
+            catch (IOException e) {
+                // nothing to be done
+            }
+        }
+    }
+
+    // An unloaded chunk holding just the blocks of a saved one's sections,
+    // read the way AnvilChunkLoader does; enough to count its ores, and
+    // nothing is loaded or populated to get it.
+    private static Chunk savedSections(World world, int chunkX, int chunkZ, NBTTagCompound level)
+    {
+        ExtendedBlockStorage[] storages = new ExtendedBlockStorage[16];
+        boolean sky = !world.provider.getHasNoSky();
+        NBTTagList sections = level.getTagList("Sections", 10);
+        for (int i = 0; i < sections.tagCount(); i++) {
+            NBTTagCompound section = sections.getCompoundTagAt(i);
+            int sy = section.getByte("Y");
+            if (sy < 0 || sy >= storages.length) {
+                continue;
+            }
+            byte[]      blocks = section.getByteArray("Blocks");
+            NibbleArray data   = new NibbleArray(section.getByteArray("Data"));
+            NibbleArray add    = section.hasKey("Add", 7) ? new NibbleArray(section.getByteArray("Add")) : null;
+            char[] ids = new char[blocks.length];
+            for (int k = 0; k < ids.length; k++) {
+                int x = k & 15, y = k >> 8 & 15, z = k >> 4 & 15;
+                ids[k] = (char) ((add != null ? add.get(x, y, z) : 0) << 12
+                        | (blocks[k] & 255) << 4 | data.get(x, y, z));
+            }
+            ExtendedBlockStorage storage = new ExtendedBlockStorage(sy << 4, sky);
+            storage.setData(ids);
+            storage.removeInvalidBlocks(); // counts its blocks, for isEmpty
+            storages[sy] = storage;
+        }
+        Chunk chunk = new Chunk(world, chunkX, chunkZ);
+        chunk.setStorageArrays(storages);
+        return chunk;
+    }
+
+    // move on to the next region file whose name parses, false at the end
+    private static boolean nextRegion()
+    {
+        for (; regionIdx < regionFiles.length; regionIdx++) {
+            // r.<x>.<z>.mca
+            String[] parts = regionFiles[regionIdx].getName().split("\\.");
+            if (parts.length != 4) {
+                continue;
+            }
+            try {
+                regionChunkX = Integer.parseInt(parts[1]) << 5;
+                regionChunkZ = Integer.parseInt(parts[2]) << 5;
+            }
+            catch (NumberFormatException e) {
+                continue;
+            }
+            regionIdx++;
+            regionChunk = 0;
+            return true;
+        }
+        return false;
+    }
+
+}
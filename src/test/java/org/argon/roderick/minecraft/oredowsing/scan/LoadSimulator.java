@@ -0,0 +1,317 @@
+package org.argon.roderick.minecraft.oredowsing.scan;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.argon.roderick.minecraft.oredowsing.items.DowsingRod;
+import org.argon.roderick.minecraft.oredowsing.lib.Constants;
+import org.argon.roderick.minecraft.oredowsing.lib.IntArrayList;
+
+// Soak run of server-side dowsing, driven by LoadSimulatorTest.  Simulated
+// players stand in a synthetic world (see SyntheticWorld) and fire rods at
+// a steady rate through ScanScheduler, while whole ticks, scan latency,
+// allocation and GC are measured.  At the end the run passes or fails
+// against MAX_TICK_MILLIS and MAX_ALLOC_MB_PER_SEC.  It's only ever run in
+// the test's own JVM, never on a server where real players would share
+// the scheduler with it.
+
+public class LoadSimulator {
+
+    private static final int SPREAD       = 96; // players stand within this many blocks of 0,0
+    private static final int WANDER       = 4;  // ... and move up to this far between scans
+    private static final int TICK_SAMPLES = 20 * 60 * 30;
+
+    // thresholds, e.g. gradle test -Doredowsing.soak.maxTickMillis=20
+    static final double MAX_TICK_MILLIS      = Double.parseDouble(System.getProperty("oredowsing.soak.maxTickMillis", "45"));
+    static final double MAX_ALLOC_MB_PER_SEC = Double.parseDouble(System.getProperty("oredowsing.soak.maxAllocMBPerSec", "64"));
+
+    private static class SimPlayer {
+        final UUID       id = UUID.randomUUID();
+        final DowsingRod rod;
+        final ArrayDeque<SimScanJob> pending = new ArrayDeque<SimScanJob>(); // accepted, oldest first
+        int x, y, z;
+        long nextScanTick;
+        int completed;
+
+        SimPlayer(DowsingRod parRod)
+        {
+            rod = parRod;
+        }
+    }
+
+    private class SimScanJob extends ScanJob {
+
+        final SimPlayer simPlayer;
+        final long      issuedTick;
+
+        SimScanJob(SimPlayer p)
+        {
+            super(p.rod, synth.getWorld(), null, p.id, p.x, p.y, p.z,
+                    p.rod.getInitialTargetStack(),
+                    p.rod.getMaxSquareRadius() > 0 ? p.rod.getMaxSquareRadius() : p.rod.getBaseSquareRadius(),
+                    p.rod.getShowOreColor());
+            simPlayer  = p;
+            issuedTick = tick;
+        }
+
+        // its own cache, synthetic sections mustn't end up in the shared one
+        @Override
+        protected SectionCache getSectionCache()
+        {
+            return sectionCache;
+        }
+
+        // the synthetic world's densities and learned bands, OreDensityTracker
+        // knows nothing of it and y_bands describe a real one.  synth is the outer
+        // instance's, so it's there already when the constructor calls these
+        @Override
+        protected OreDensityMap getDensityMap()
+        {
+            return synth.getDensityMap();
+        }
+
+        @Override
+        protected int[] getSectionRange(int oreType)
+        {
+            return OreHeightBands.getLearnedSectionRange(synth.getDensityMap(), oreType);
+        }
+
+        @Override
+        protected void finished(long latencyTicks)
+        {
+            latencies.add((int) latencyTicks);
+            totalHits += hits.size();
+            simPlayer.pending.remove(this);
+            simPlayer.completed++;
+        }
+    }
+
+    // what a run came to, for LoadSimulatorTest
+    static class Report {
+        double tickMillisP50, tickMillisP95, tickMillisP99;
+        int    latencyP50, latencyP95, latencyMax; // ticks
+        long   submitted, rejected, completed;
+        long   oldestPending;     // ticks the longest waiting unfinished scan had waited at the end
+        int    playersNeverDone;  // players none of whose scans completed
+        double allocMBPerSec;     // -1 if the JVM can't say
+        boolean pass;
+    }
+
+    private final SyntheticWorld synth;
+    private final SectionCache   sectionCache = new SectionCache();
+    private final SimPlayer[]    players;
+    private final Random         rand;
+    private final int            scanInterval; // ticks, on average
+    private final long           endTick;
+
+    private long   tick;
+    private long   tickStart;
+    private long[] tickNanos = new long[TICK_SAMPLES];
+    private int    numTicks;
+
+    private final IntArrayList latencies = new IntArrayList();
+    private long submitted, rejected, totalHits;
+    private Report report;
+
+    private final long heapStart;
+    private final long allocStart;
+    private final long gcCountStart, gcMillisStart;
+    private final long wallStart;
+
+    LoadSimulator(List<DowsingRod> rods, int numPlayers, int seconds, double oreDensity, double scansPerMinute)
+    {
+        rand         = new Random(numPlayers * 31L + seconds);
+        synth        = new SyntheticWorld(rand.nextLong(), oreDensity);
+        scanInterval = Math.max(1, (int) Math.round(Constants.TICKS_PER_SEC * 60 / scansPerMinute));
+        endTick      = (long) seconds * Constants.TICKS_PER_SEC;
+
+        players = new SimPlayer[numPlayers];
+        for (int i = 0; i < numPlayers; i++) {
+            SimPlayer p = new SimPlayer(rods.get(i % rods.size()));
+            p.x = rand.nextInt(2 * SPREAD + 1) - SPREAD;
+            p.y = 8 + rand.nextInt(SyntheticWorld.SURFACE_Y - 16);
+            p.z = rand.nextInt(2 * SPREAD + 1) - SPREAD;
+            p.nextScanTick = rand.nextInt(scanInterval);
+            players[i] = p;
+        }
+
+        // generate the whole area first so it doesn't count as growth
+        int reach = (SPREAD + 32) >> 4;
+        for (int chunkX = -reach; chunkX <= reach; chunkX++) {
+            for (int chunkZ = -reach; chunkZ <= reach; chunkZ++) {
+                synth.getChunk(chunkX, chunkZ);
+            }
+        }
+
+        heapStart     = usedHeap();
+        allocStart    = allocatedBytes();
+        gcCountStart  = gcCount();
+        gcMillisStart = gcMillis();
+        wallStart     = System.nanoTime();
+    }
+
+        say(String.format("soak: %d players, %d s, ore density %.3f, %.1f scans/minute each, %d synthetic chunks",
+                numPlayers, seconds, oreDensity, scansPerMinute, synth.getNumChunks()));
+    }
+
+    void onTickStart()
+    {
+        tickStart = System.nanoTime();
+        issueScans();
+    }
+
+    void onTickEnd()
+    {
+        if (tickStart != 0 && report == null) {
+            recordTick(System.nanoTime() - tickStart);
+        }
+    }
+
+    // null until the run has finished
+    Report getReport()
+    {
+        return report;
+    }
+
+    private void issueScans()
+    {
+        for (SimPlayer p : players) {
+            if (p.nextScanTick > tick) {
+                continue;
+            }
+            p.x += rand.nextInt(2 * WANDER + 1) - WANDER;
+            p.z += rand.nextInt(2 * WANDER + 1) - WANDER;
+            submitted++;
+            SimScanJob job = new SimScanJob(p);
+            if (ScanScheduler.submit(job) == ScanScheduler.Admission.ACCEPTED) {
+                p.pending.addLast(job);
+            }
+            else {
+                rejected++;
+            }
+            // +-50% jitter
+            p.nextScanTick = tick + scanInterval / 2 + rand.nextInt(scanInterval + 1);
+        }
+    }
+
+    private void recordTick(long nanos)
+    {
+        if (numTicks == tickNanos.length) {
+            tickNanos = Arrays.copyOf(tickNanos, tickNanos.length * 2);
+        }
+        tickNanos[numTicks++] = nanos;
+        if (++tick >= endTick) {
+            finish();
+        }
+    }
+
+    private void finish()
+    {
+        Report r = new Report();
+        for (SimPlayer p : players) {
+            ScanScheduler.forget(p.id);
+            if (!p.pending.isEmpty()) {
+                r.oldestPending = Math.max(r.oldestPending, tick - p.pending.peekFirst().issuedTick);
+            }
+            if (p.completed == 0) {
+                r.playersNeverDone++;
+            }
+        }
+
+        double seconds  = (System.nanoTime() - wallStart) / 1e9;
+        double allocMBs = allocStart < 0 ? -1 : (allocatedBytes() - allocStart) / 1048576D / seconds;
+        long[] ticks    = Arrays.copyOf(tickNanos, numTicks);
+        int[]  lat      = latencies.toArray();
+        Arrays.sort(ticks);
+        Arrays.sort(lat);
+
+        r.tickMillisP50 = percentile(ticks, 0.50) / 1e6;
+        r.tickMillisP95 = percentile(ticks, 0.95) / 1e6;
+        r.tickMillisP99 = percentile(ticks, 0.99) / 1e6;
+        r.latencyP50    = percentile(lat, 0.50);
+        r.latencyP95    = percentile(lat, 0.95);
+        r.latencyMax    = lat.length == 0 ? 0 : lat[lat.length - 1];
+        r.submitted     = submitted;
+        r.rejected      = rejected;
+        r.completed     = lat.length;
+        r.allocMBPerSec = allocMBs;
+
+        say(String.format("soak: %d ticks in %.0f s; tick ms p50 %.2f, p95 %.2f, p99 %.2f, max %.2f",
+                numTicks, seconds, r.tickMillisP50, r.tickMillisP95, r.tickMillisP99,
+                numTicks == 0 ? 0 : ticks[numTicks - 1] / 1e6));
+        say(String.format("soak: %d scans submitted, %d rejected, %d completed, %d hits; latency ticks p50 %d, p95 %d, max %d",
+                submitted, rejected, r.completed, totalHits, r.latencyP50, r.latencyP95, r.latencyMax));
+        say(String.format("soak: oldest unfinished scan %d ticks, %d players with no scan completed",
+                r.oldestPending, r.playersNeverDone));
+        say(String.format("soak: section cache %.0f%% hits of %d lookups, %d evictions",
+                100 * sectionCache.getHitRate(), sectionCache.getLookups(), sectionCache.getEvictions()));
+        say(String.format("soak: heap %+.1f MB, allocation %.1f MB/s, GC %d collections %d ms",
+                (usedHeap() - heapStart) / 1048576D, allocMBs,
+                gcCount() - gcCountStart, gcMillis() - gcMillisStart));
+
+        boolean tickOk  = r.tickMillisP99 <= MAX_TICK_MILLIS;
+        boolean allocOk = allocMBs <= MAX_ALLOC_MB_PER_SEC;
+        r.pass = tickOk && allocOk;
+        report = r;
+        say(r.pass
+                ? "soak: PASS"
+                : "soak: FAIL" + (tickOk ? "" : ", tick p99 over " + MAX_TICK_MILLIS + " ms")
+                               + (allocOk ? "" : ", allocation over " + MAX_ALLOC_MB_PER_SEC + " MB/s"));
+    }
+
+    private static void say(String msg)
+    {
+        System.out.println(msg);
+    }
+
+    private static long percentile(long[] sorted, double p)
+    {
+        return sorted.length == 0 ? 0 : sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+    }
+
+    private static int percentile(int[] sorted, double p)
+    {
+        return sorted.length == 0 ? 0 : sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+    }
+
+    private static long usedHeap()
+    {
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    // bytes allocated by this (the ticking) thread, -1 if the JVM can't say
+    private static long allocatedBytes()
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static long gcCount()
+    {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += Math.max(0, gc.getCollectionCount());
+        }
+        return n;
+    }
+
+    private static long gcMillis()
+    {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += Math.max(0, gc.getCollectionTime());
+        }
+        return n;
+    }
+
+}
@@ -0,0 +1,72 @@
+package org.argon.roderick.minecraft.oredowsing.scan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.argon.roderick.minecraft.oredowsing.init.ModItems;
+import org.argon.roderick.minecraft.oredowsing.lib.Constants;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.minecraft.init.Bootstrap;
+import net.minecraftforge.common.config.Configuration;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+
+// Headless soak run: simulated players carrying the configured rod tiers
+// issue scans into ScanScheduler, which is ticked here directly, and the
+// run must stay within the tick and allocation thresholds, keep latency
+// down and get every player's scans done.  Sized for our player counts
+// with e.g. gradle test -Doredowsing.soak.players=40
+
+public class LoadSimulatorTest {
+
+    private static final int    PLAYERS          = Integer.getInteger("oredowsing.soak.players", 12);
+    private static final int    SECONDS          = Integer.getInteger("oredowsing.soak.seconds", 60);
+    private static final double ORE_DENSITY      = Double.parseDouble(System.getProperty("oredowsing.soak.oreDensity", "0.01"));
+    private static final double SCANS_PER_MINUTE = Double.parseDouble(System.getProperty("oredowsing.soak.scansPerMinute", "4"));
+
+    private static final int MAX_LATENCY_P95 = 200; // ticks
+    private static final int MAX_PENDING     = 400; // ticks the oldest unfinished scan may have waited
+
+    @BeforeClass
+    public static void setUp() throws IOException
+    {
+        Bootstrap.register();
+        File file = File.createTempFile("oredowsing", ".cfg");
+        file.delete(); // Configuration writes the defaults to a new one
+        file.deleteOnExit();
+        Configuration config = new Configuration(file);
+        Constants.preInit(null, config);
+        ModItems.createDowsingRods(config);
+    }
+
+    @Test
+    public void soak()
+    {
+        assertFalse("no rods enabled", ModItems.dowsingRods.isEmpty());
+
+        ScanScheduler.clear();
+        ScanScheduler scheduler = new ScanScheduler();
+        TickEvent.ServerTickEvent tickEnd = new TickEvent.ServerTickEvent(TickEvent.Phase.END);
+        LoadSimulator sim = new LoadSimulator(ModItems.dowsingRods, PLAYERS, SECONDS, ORE_DENSITY, SCANS_PER_MINUTE);
+        while (sim.getReport() == null) {
+            sim.onTickStart();
+            scheduler.onServerTick(tickEnd);
+            sim.onTickEnd();
+        }
+
+        LoadSimulator.Report r = sim.getReport();
+        assertTrue("no scans completed", r.completed > 0);
+        assertEquals("players starved of scans", 0, r.playersNeverDone);
+        assertTrue("oldest unfinished scan waited " + r.oldestPending + " ticks", r.oldestPending <= MAX_PENDING);
+        assertTrue("latency p95 " + r.latencyP95 + " ticks", r.latencyP95 <= MAX_LATENCY_P95);
+        assertTrue("tick p99 " + r.tickMillisP99 + " ms", r.tickMillisP99 <= LoadSimulator.MAX_TICK_MILLIS);
+        assertTrue("allocation " + r.allocMBPerSec + " MB/s", r.allocMBPerSec <= LoadSimulator.MAX_ALLOC_MB_PER_SEC);
+        assertTrue("soak failed", r.pass);
+    }
+
+}
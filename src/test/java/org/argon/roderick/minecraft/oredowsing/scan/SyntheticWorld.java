@@ -0,0 +1,174 @@
+package org.argon.roderick.minecraft.oredowsing.scan;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.client.multiplayer.ChunkProviderClient;
+import net.minecraft.init.Blocks;
+import net.minecraft.profiler.Profiler;
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldProviderSurface;
+import net.minecraft.world.WorldSettings;
+import net.minecraft.world.WorldType;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.IChunkProvider;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import net.minecraft.world.storage.WorldInfo;
+
+// A World of its own for the load simulator, with no server or save
+// behind it: solid stone up to SURFACE_Y with small random-walk veins of
+// vanilla ores mixed in at a configurable density, generated as its chunk
+// provider is asked for them.  Each chunk is counted into an OreDensityMap
+// of its own as it's generated, so scans of it are planned and height
+// banded by what's in it.
+
+class SyntheticWorld {
+
+    static final int SURFACE_Y = 64;
+
+    private static final int AVERAGE_VEIN = 4;
+
+    private static final IBlockState STONE = Blocks.stone.getDefaultState();
+
+    // ore, relative frequency, highest y
+    private static final IBlockState[] ORES = {
+        Blocks.coal_ore.getDefaultState(),
+        Blocks.iron_ore.getDefaultState(),
+        Blocks.gold_ore.getDefaultState(),
+        Blocks.redstone_ore.getDefaultState(),
+        Blocks.lapis_ore.getDefaultState(),
+        Blocks.diamond_ore.getDefaultState(),
+    };
+    private static final int[] ORE_WEIGHT = { 40, 25,  8, 12,  5,  3 };
+    private static final int[] ORE_MAX_Y  = { 64, 64, 32, 16, 32, 16 };
+
+    private final World  world;
+    private final long   seed;
+    private final double oreDensity; // fraction of blocks which are ore
+    private final HashMap<Long, Chunk> chunks = new HashMap<Long, Chunk>();
+    private final OreDensityMap densityMap = new OreDensityMap();
+
+    SyntheticWorld(long parSeed, double parOreDensity)
+    {
+        seed       = parSeed;
+        oreDensity = parOreDensity;
+
+        WorldSettings settings = new WorldSettings(parSeed, WorldSettings.GameType.SURVIVAL, false, false, WorldType.DEFAULT);
+        world = new World(null, new WorldInfo(settings, "synthetic"), new WorldProviderSurface(), new Profiler(), false) {
+            {
+                // World leaves this to WorldServer and WorldClient
+                chunkProvider = createChunkProvider();
+            }
+
+            @Override
+            protected IChunkProvider createChunkProvider()
+            {
+                return new Provider(this);
+            }
+
+            @Override
+            protected int getRenderDistanceChunks()
+            {
+                return 0;
+            }
+        };
+    }
+
+    // Every chunk exists, and is generated the first time it's asked for.
+    // The client's is the simplest provider there is, it holds chunks and
+    // never generates, populates or saves any.
+    private class Provider extends ChunkProviderClient {
+
+        Provider(World parWorld)
+        {
+            super(parWorld);
+        }
+
+        @Override
+        public boolean chunkExists(int chunkX, int chunkZ)
+        {
+            return true;
+        }
+
+        @Override
+        public Chunk provideChunk(int chunkX, int chunkZ)
+        {
+            return getChunk(chunkX, chunkZ);
+        }
+    }
+
+    World getWorld()
+    {
+        return world;
+    }
+
+    int getNumChunks()
+    {
+        return chunks.size();
+    }
+
+    OreDensityMap getDensityMap()
+    {
+        return densityMap;
+    }
+
+    Chunk getChunk(int chunkX, int chunkZ)
+    {
+        Long key = ChunkCoordIntPair.chunkXZ2Int(chunkX, chunkZ);
+        Chunk chunk = chunks.get(key);
+        if (chunk == null) {
+            chunk = generate(chunkX, chunkZ);
+            chunks.put(key, chunk);
+            densityMap.countChunk(chunk);
+        }
+        return chunk;
+    }
+
+    private Chunk generate(int chunkX, int chunkZ)
+    {
+        Random rand = new Random(seed ^ (chunkX * 341873128712L + chunkZ * 132897987541L));
+        Chunk chunk = new Chunk(world, chunkX, chunkZ);
+        ExtendedBlockStorage[] storageArray = chunk.getBlockStorageArray();
+        int totalWeight = 0;
+        for (int i = 0; i < ORE_WEIGHT.length; i++) {
+            totalWeight += ORE_WEIGHT[i];
+        }
+
+        for (int sy = 0; sy < SURFACE_Y >> 4; sy++) {
+            ExtendedBlockStorage storage = new ExtendedBlockStorage(sy << 4, true);
+            for (int y = 0; y < 16; y++) {
+                for (int z = 0; z < 16; z++) {
+                    for (int x = 0; x < 16; x++) {
+                        storage.set(x, y, z, STONE);
+                    }
+                }
+            }
+
+            int veins = (int) Math.round(oreDensity * 4096 / AVERAGE_VEIN);
+            for (int v = 0; v < veins; v++) {
+                int pick = rand.nextInt(totalWeight), ore = 0;
+                while (pick >= ORE_WEIGHT[ore]) {
+                    pick -= ORE_WEIGHT[ore++];
+                }
+                if ((sy << 4) >= ORE_MAX_Y[ore]) {
+                    continue;
+                }
+                int x = rand.nextInt(16), y = rand.nextInt(16), z = rand.nextInt(16);
+                int size = 1 + rand.nextInt(2 * AVERAGE_VEIN - 1);
+                for (int b = 0; b < size; b++) {
+                    storage.set(x, y, z, ORES[ore]);
+                    switch (rand.nextInt(3)) {
+                        case 0:  x = Math.max(0, Math.min(15, x + rand.nextInt(3) - 1)); break;
+                        case 1:  y = Math.max(0, Math.min(15, y + rand.nextInt(3) - 1)); break;
+                        default: z = Math.max(0, Math.min(15, z + rand.nextInt(3) - 1)); break;
+                    }
+                }
+            }
+            storageArray[sy] = storage;
+        }
+        return chunk;
+    }
+
+}